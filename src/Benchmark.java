@@ -0,0 +1,403 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
+import java.util.regex.Pattern;
+
+/**
+ * Microbenchmarks of the hot paths of the protocol on synthetic routing
+ * tables of various sizes, which are run in the manner of JMH: each case is
+ * repeated for a few warm-up iterations of a fixed time, which are discarded,
+ * and then for the measured ones.
+ *
+ * A case reports its throughput, its average time per operation with the
+ * spread over the iterations, the bytes it allocates per operation and per
+ * second on the measuring thread, and the collections that have happened in
+ * the meantime.
+ *
+ * Usage: java -cp routing.jar Benchmark [regex] -Entries:10,1000,100000
+ *        -Time:1000 -Iterations:3,5
+ *
+ * @author Burak Gök
+ */
+public final class Benchmark {
+    private static final int BASE = 10_000; // Of the synthetic addresses
+    private static volatile long sink; // Keeps the results from being elided
+
+    private static int[] sizes = {10, 100, 1_000, 10_000, 100_000};
+    private static long time = 1_000; // Of an iteration in milliseconds
+    private static int warmups = 3, iterations = 5;
+
+    private static final ThreadMXBean threads =
+        ManagementFactory.getThreadMXBean();
+
+    private Benchmark() {}
+
+    private static abstract class Case {
+        // Whether each operation is prepared by prepare(), which is not timed
+        private final boolean prepared;
+
+        Case() {
+            this(false);
+        }
+        Case(boolean prepared) {
+            this.prepared = prepared;
+        }
+        void prepare() {}
+        /**
+         * @return Anything derived from the result of the operation.
+         */
+        abstract long run();
+        String note() {
+            return "";
+        }
+    }
+
+    private static final Map<String, IntFunction<Case>> cases =
+        new LinkedHashMap<>();
+    static {
+        cases.put("receive", Benchmark::receive);
+        cases.put("send", Benchmark::send);
+        cases.put("encode", Benchmark::encode);
+        cases.put("decode", Benchmark::decode);
+        cases.put("serialize", Benchmark::serialize);
+        cases.put("deserialize", Benchmark::deserialize);
+        cases.put("transaction", Benchmark::transaction);
+        cases.put("transaction-all", Benchmark::transactionAll);
+        cases.put("compile", Benchmark::compile);
+    }
+
+    public static void main(String[] args) {
+        Pattern filter = null;
+        for (String arg : args) {
+            if (!arg.startsWith("-")) {
+                filter = Pattern.compile(arg);
+                continue;
+            }
+            int colon = arg.indexOf(':');
+            if (colon < 0)
+                raiseException("Invalid argument: %s", arg);
+            String name = arg.substring(1, colon);
+            String value = arg.substring(colon + 1);
+
+            switch (name) {
+                case "Entries":
+                    sizes = Arrays.stream(value.split(","))
+                        .mapToInt(Integer::parseInt).toArray();
+                    break;
+                case "Time":
+                    time = Long.parseLong(value);
+                    break;
+                case "Iterations":
+                    String[] counts = value.split(",");
+                    warmups = Integer.parseInt(counts[0]);
+                    iterations = Integer.parseInt(counts[1]);
+                    if (warmups < 0 || iterations < 1)
+                        raiseException("Invalid iterations: %s", value);
+                    break;
+                default:
+                    raiseException("Unknown option: %s", name);
+            }
+        }
+        for (int size : sizes)
+            if (size < 3 || BASE + size < BASE)
+                raiseException("Invalid number of entries: %d", size);
+        Settings.verbose = false;
+
+        System.out.format("%-16s %8s %12s %12s %7s %12s %10s %5s %7s%n",
+            "Benchmark", "Entries", "ops/s", "us/op", "err %", "B/op", "MB/s",
+            "GCs", "GC ms");
+        for (Map.Entry<String, IntFunction<Case>> entry : cases.entrySet())
+            for (int size : sizes) {
+                String name = entry.getKey() + "/" + size;
+                if (filter == null || filter.matcher(name).find())
+                    measure(entry.getKey(), size, entry.getValue().apply(size));
+            }
+    }
+
+    private static void measure(String name, int size, Case c) {
+        for (int i = 0; i < warmups; i++)
+            iterate(c);
+
+        long gcs = -collections(false), gcTime = -collections(true);
+        long ops = 0, nanos = 0, bytes = 0;
+        double min = Double.POSITIVE_INFINITY, max = 0; // Per operation
+        for (int i = 0; i < iterations; i++) {
+            long[] iteration = iterate(c);
+            ops += iteration[0];
+            nanos += iteration[1];
+            bytes += iteration[2];
+            double average = (double) iteration[1] / iteration[0];
+            min = Math.min(min, average);
+            max = Math.max(max, average);
+        }
+        gcs += collections(false);
+        gcTime += collections(true);
+
+        double average = (double) nanos / ops;
+        System.out.format("%-16s %8d %12.1f %12.3f %7.1f %12s %10s %5d %7d"
+            + " %s%n", name, size, 1e9 / average, average / 1e3,
+            100 * (max - min) / 2 / average,
+            bytes < 0 ? "n/a" : String.format("%.1f", (double) bytes / ops),
+            bytes < 0 ? "n/a" : String.format("%.1f", 1e3 * bytes / nanos),
+            gcs, gcTime, c.note());
+    }
+    /**
+     * @return The number of operations, the time they have taken in
+     *         nanoseconds and the bytes they have allocated, which is
+     *         negative if it is not known.
+     */
+    private static long[] iterate(Case c) {
+        long ops = 0, result = 0, nanos = 0, bytes = allocated();
+        long start = System.nanoTime(), now;
+        do {
+            if (c.prepared) {
+                c.prepare();
+                long begin = System.nanoTime();
+                result += c.run();
+                nanos += System.nanoTime() - begin;
+            }
+            else result += c.run();
+            ops++;
+        } while ((now = System.nanoTime()) - start < time * 1_000_000);
+        long allocated = allocated();
+        sink += result;
+        return new long[] {ops, c.prepared ? nanos : now - start,
+            bytes < 0 ? -1 : allocated - bytes};
+    }
+
+    private static long allocated() {
+        return threads instanceof com.sun.management.ThreadMXBean
+            ? ((com.sun.management.ThreadMXBean) threads)
+                .getThreadAllocatedBytes(Thread.currentThread().getId())
+            : -1;
+    }
+    private static long collections(boolean time) {
+        long sum = 0;
+        for (GarbageCollectorMXBean gc
+                : ManagementFactory.getGarbageCollectorMXBeans())
+            sum += Math.max(0, time
+                ? gc.getCollectionTime() : gc.getCollectionCount());
+        return sum;
+    }
+
+    /* A node at BASE + 1 with a neighbor at BASE, which reports the other
+     * entries, and any others, and whose engine is driven by the cases
+     * directly. The messages of the node are dropped.
+     */
+    private static Node node(int... others) {
+        List<Node.Neighbor> neighbors = new ArrayList<>();
+        neighbors.add(new Node.Neighbor(BASE, 1));
+        for (int other : others)
+            neighbors.add(new Node.Neighbor(other, 1));
+        return new Node(BASE + 1, neighbors,
+            new Transport() {
+                public Object receive() throws IOException {
+                    throw new IOException("Nothing is received");
+                }
+                public void send(Object message, int... addresses) {}
+                public void close() {}
+            });
+    }
+    /**
+     * @param shift Added to the distances to the destinations.
+     * @return A full vector of the neighbor of the node, whose entries
+     *         include the neighbor itself and the node.
+     */
+    private static Node.DistanceVector vector(int size, double shift,
+            int[] sequences) {
+        int[] addresses = new int[size];
+        double[] distances = new double[size];
+        for (int i = 0; i < size; i++) {
+            addresses[i] = BASE + i;
+            distances[i] = i == 0 ? 0 : i == 1 ? 1 : 1 + i % 97 + shift;
+        }
+        return new Node.DistanceVector(BASE, 0, false, addresses, distances,
+            sequences);
+    }
+    private static Node.DistanceVector vector(int size) {
+        return vector(size, 0, new int[size]);
+    }
+
+    /* The vectors alternate between two sets of distances, with newer
+     * sequence numbers each time so that they are always feasible, and
+     * every route of the node changes. The numbers are set before the
+     * operation, outside the time measured.
+     */
+    private static Case receive(int size) {
+        Node node = node();
+        RoutingEngine engine = node.getEngine();
+        int[] sequences = new int[size];
+        Node.DistanceVector[] vectors =
+            {vector(size, 0, sequences), vector(size, 0.5, sequences)};
+        engine.receive(vectors[0]);
+        return new Case(true) {
+            int sequence = 0;
+
+            void prepare() {
+                Arrays.fill(sequences, ++sequence);
+            }
+            long run() {
+                engine.receive(vectors[sequence & 1]);
+                return node.getRoutes().version();
+            }
+        };
+    }
+    /* The vector is built from a table of the specified size for a second
+     * neighbor, through which no route goes, so that split horizon withholds
+     * nothing from it. Its resync request makes the node send a full vector
+     * to it alone.
+     */
+    private static Case send(int size) {
+        int other = BASE + size;
+        Node node = node(other);
+        RoutingEngine engine = node.getEngine();
+        engine.receive(vector(size));
+        Node.ResyncRequest request = new Node.ResyncRequest(other);
+        return new Case() {
+            long run() {
+                engine.receive(request);
+                return node.nodes.size();
+            }
+        };
+    }
+
+    private static Case encode(int size) {
+        Node.DistanceVector vector = vector(size);
+        ByteBuffer buffer = ByteBuffer.allocate(MessageCodec.length(vector));
+        return new Case() {
+            long run() {
+                buffer.clear();
+                MessageCodec.encode(vector, buffer);
+                return buffer.position();
+            }
+            String note() {
+                return buffer.capacity() + " bytes";
+            }
+        };
+    }
+    private static Case decode(int size) {
+        Node.DistanceVector vector = vector(size);
+        ByteBuffer buffer = ByteBuffer.allocate(MessageCodec.length(vector));
+        MessageCodec.encode(vector, buffer);
+        return new Case() {
+            long run() {
+                buffer.flip();
+                try {
+                    return ((Node.DistanceVector) MessageCodec.decode(buffer))
+                        .addresses.length;
+                } catch (ProtocolException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            }
+        };
+    }
+    /* The Java serialization that the codec has replaced, which wrote every
+     * message with a new stream.
+     */
+    private static Case serialize(int size) {
+        Node.DistanceVector vector = vector(size);
+        return new Case() {
+            int length;
+
+            long run() {
+                return length = serialize(vector).length;
+            }
+            String note() {
+                return length + " bytes";
+            }
+        };
+    }
+    private static Case deserialize(int size) {
+        byte[] bytes = serialize(vector(size));
+        return new Case() {
+            long run() {
+                try (ObjectInputStream in = new ObjectInputStream(
+                        new ByteArrayInputStream(bytes))) {
+                    return ((Node.DistanceVector) in.readObject())
+                        .addresses.length;
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                } catch (ClassNotFoundException ex) {
+                    throw new IllegalStateException(ex);
+                }
+            }
+        };
+    }
+    private static byte[] serialize(Object message) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(message);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return bytes.toByteArray();
+    }
+
+    /* A transaction in which every hundredth or every route changes, which
+     * is then told to have changed. It replaces copying the whole table and
+     * comparing it with the copy.
+     */
+    private static Case transaction(int size) {
+        return transaction(size, Math.max(1, size / 100));
+    }
+    private static Case transactionAll(int size) {
+        return transaction(size, 1);
+    }
+    private static Case transaction(int size, int step) {
+        RoutingTable table = new RoutingTable(2 * size);
+        for (int i = 0; i < size; i++)
+            table.put(BASE + i, 1 + i % 97, BASE);
+        return new Case() {
+            double shift = 0;
+
+            long run() {
+                shift = 0.5 - shift;
+                table.begin();
+                for (int i = 0; i < size; i += step) {
+                    int node = table.find(BASE + i);
+                    table.setDistance(node, 1 + i % 97 + shift);
+                }
+                return table.isChanged() ? 1 : 0;
+            }
+        };
+    }
+
+    /* A snapshot of the routes after a transaction in which one route has
+     * changed, compiled from the previous snapshot.
+     */
+    private static Case compile(int size) {
+        RoutingTable table = new RoutingTable(2 * size);
+        for (int i = 0; i < size; i++)
+            table.put(BASE + i, 1 + i % 97, BASE);
+        return new Case() {
+            ForwardingTable routes = ForwardingTable.compile(table, 0);
+            int version = 0;
+
+            long run() {
+                table.begin();
+                int node = table.find(BASE + version % size);
+                table.setDistance(node, table.distance(node) + 1);
+                routes = ForwardingTable.compile(table, routes, ++version);
+                return routes.version();
+            }
+        };
+    }
+
+    private static void raiseException(String format, Object... args) {
+        throw new RuntimeException(String.format(format, args));
+    }
+}
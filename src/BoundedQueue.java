@@ -0,0 +1,66 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, lock-free queue with multiple producers and a single consumer.
+ *
+ * Producers claim a slot by advancing the tail, and then publish the element
+ * into it. The consumer waits for a claimed slot to be published before it
+ * moves the head past it.
+ *
+ * @author Burak Gök
+ */
+public class BoundedQueue<E> {
+    private final AtomicReferenceArray<E> buffer;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head;
+
+    /**
+     * @param capacity It is rounded up to the next power of two.
+     */
+    public BoundedQueue(int capacity) {
+        int length = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+        buffer = new AtomicReferenceArray<>(length);
+        mask = length - 1;
+    }
+
+    /**
+     * @return false if the queue is full.
+     */
+    public boolean offer(E element) {
+        long index;
+        do {
+            index = tail.get();
+            if (index - head > mask)
+                return false;
+        } while (!tail.compareAndSet(index, index + 1));
+        buffer.lazySet((int) index & mask, element);
+        return true;
+    }
+
+    /**
+     * Must only be called by the consumer.
+     *
+     * @return null if the queue is empty.
+     */
+    public E poll() {
+        long index = head;
+        int offset = (int) index & mask;
+        E element = buffer.get(offset);
+        if (element == null) {
+            if (index == tail.get())
+                return null;
+            // A producer has claimed the slot, but not published it yet
+            while ((element = buffer.get(offset)) == null)
+                Thread.yield();
+        }
+        buffer.lazySet(offset, null);
+        head = index + 1;
+        return element;
+    }
+
+    public boolean isEmpty() {
+        return head == tail.get();
+    }
+}
@@ -0,0 +1,106 @@
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tells when the network has converged, by counting the work that is left to
+ * the nodes: the events in their mailboxes, the link changes they are yet to
+ * notice, and the routing messages in flight, including the distance vectors
+ * deferred by pacing. Any work is counted before the work that has caused it
+ * is done, so the count cannot reach zero while there is anything left.
+ *
+ * A message that is lost by the transport is never done, so the messages in
+ * flight are taken as lost once no routing message has been sent or received
+ * for a while. The ones to a node that leaves are taken as lost at once. A
+ * message that arrives after it has been taken as lost is not counted again.
+ *
+ * @author Burak Gök
+ */
+public final class Convergence {
+    private static final long POLL = 10, GRACE = 1000; // In milliseconds
+
+    private static final AtomicLong pending = new AtomicLong(),
+                                    arrived = new AtomicLong();
+    // The messages in flight to each node, and the nodes that have left
+    private static final Map<Integer, AtomicLong> inFlight =
+        new ConcurrentHashMap<>();
+    private static final Set<Integer> left = ConcurrentHashMap.newKeySet();
+
+    private Convergence() {}
+
+    static void add(long work) {
+        pending.addAndGet(work);
+    }
+    static void done(long work) {
+        pending.addAndGet(-work);
+    }
+    static void sent(int destination) {
+        if (left.contains(destination))
+            return;
+        pending.incrementAndGet();
+        inFlight.computeIfAbsent(destination, key -> new AtomicLong())
+            .incrementAndGet();
+    }
+    static void sent(int[] destinations) {
+        for (int destination : destinations)
+            sent(destination);
+    }
+    static void arrived(int destination) {
+        arrived.incrementAndGet();
+        AtomicLong messages = inFlight.get(destination);
+        if (messages != null
+                && messages.getAndUpdate(n -> Math.max(n - 1, 0)) > 0)
+            pending.decrementAndGet();
+    }
+    static void left(int address) {
+        left.add(address);
+        AtomicLong messages = inFlight.remove(address);
+        if (messages != null)
+            pending.addAndGet(-messages.getAndSet(0));
+    }
+
+    /* Forgets all the work, e.g. of a network that has been terminated */
+    static void reset() {
+        pending.set(0);
+        arrived.set(0);
+        inFlight.clear();
+        left.clear();
+    }
+
+    /**
+     * Blocks until there is no work left, as seen twice in a row, or until
+     * the timeout expires.
+     *
+     * @param timeout In milliseconds.
+     * @return The time it has taken to converge in milliseconds, or -1 if it
+     *         has not converged in time.
+     */
+    public static long await(long timeout) {
+        long start = Simulator.currentTimeMillis(), converged = -1;
+        long active = start, flight = -1, count = -1;
+        for (long now = start;; now = Simulator.currentTimeMillis()) {
+            if (pending.get() <= 0) {
+                if (converged >= 0)
+                    return converged - start;
+                converged = now;
+            }
+            else converged = -1;
+            if (now - start >= timeout)
+                return -1;
+
+            long _flight = 0, _count = arrived.get();
+            for (AtomicLong messages : inFlight.values())
+                _flight += messages.get();
+            if (_flight != flight || _count != count) {
+                flight = _flight;
+                count = _count;
+                active = now;
+            }
+            else if (flight > 0 && now - active >= GRACE + Settings.pacing)
+                for (AtomicLong messages : inFlight.values())
+                    pending.addAndGet(-messages.getAndSet(0));
+            Node.sleep(POLL);
+        }
+    }
+}
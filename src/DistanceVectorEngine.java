@@ -0,0 +1,774 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The distance-vector engine, in which a node advertises its routes to its
+ * neighbors whenever they change, and takes the shortest of the ones
+ * advertised to it.
+ *
+ * The routes are kept loop-free by the feasibility condition of Babel. Each
+ * node numbers the routes to itself, and the number is advertised along with
+ * the distance of every route. A node only takes a route whose number is
+ * newer than the ones it has advertised for the destination, or whose
+ * advertised distance is shorter than the shortest one it has advertised
+ * with the same number, since the neighbor cannot be routing through it
+ * then. A node left without a feasible route asks the destination for a new
+ * number, instead of counting to infinity.
+ *
+ * The other neighbors that have advertised a feasible route to a destination
+ * are kept as the alternates of the route, the shortest ones first. A route
+ * whose next hop becomes unreachable fails over to the first alternate that
+ * is still reachable, and the alternates as short as the route are its
+ * equal-cost next hops.
+ *
+ * @author Halil Selman Atmaca
+ *         Burak Gök
+ *         Enes Varol
+ */
+class DistanceVectorEngine implements RoutingEngine {
+    private static final int DIRECT = RoutingTable.DIRECT;
+    private static final int MAX_ALTERNATES = 3; // Per route
+    private static final LongAdder sentVectors = new LongAdder(),
+                                   suppressedVectors = new LongAdder();
+    
+    private final Node host; // The node the engine runs for
+    private final int address;
+    private final Map<Integer, Node.Neighbor> neighbors;
+    private final RoutingTable nodes;
+    private final Map<Integer, Node.DistanceVector> batch =
+        new LinkedHashMap<>();
+    
+    private int issued = 0; // Sequence number of the routes to this node
+    /* The feasibility distance of each destination, i.e. the shortest
+     * distance advertised with the newest sequence number, which outlives
+     * the route.
+     */
+    private final RoutingTable feasible = new RoutingTable();
+    /* The newest sequence number requested by this node through each
+     * neighbor, keyed as in requestKey, and forwarded for others, for each
+     * destination. A request of this node that comes back through a neighbor
+     * with a stale route is forwarded as any other.
+     */
+    private final Map<Long, Integer> requested = new HashMap<>();
+    private final Map<Integer, Integer> forwarded = new HashMap<>();
+    /* The destinations that this node has requested, and has no feasible
+     * route to yet, each of which is counted as work until it has.
+     */
+    private final Set<Integer> starved = new HashSet<>();
+    // Whether the equal-cost next hops have changed since the last publishing
+    private boolean rerouted = false;
+    // Scratch space of the alternates, and of the entries of a vector
+    private final int[] alternateHops = new int[MAX_ALTERNATES];
+    private final double[] alternateDistances = new double[MAX_ALTERNATES];
+    private boolean[] reportedChanges = new boolean[0];
+    
+    DistanceVectorEngine(Node host) {
+        this.host = host;
+        address = host.getAddress();
+        neighbors = host.neighbors;
+        nodes = host.nodes;
+    }
+    
+    public void start() {
+        host.neighbors().forEach(this::sendDistanceVector);
+    }
+    
+    public boolean receive(Node.Message message) {
+        if (message instanceof Node.DistanceVector)
+            receivedDistanceVector((Node.DistanceVector) message);
+        else if (message instanceof Node.ResyncRequest)
+            receivedResyncRequest((Node.ResyncRequest) message);
+        else if (message instanceof Node.SequenceRequest)
+            receivedSequenceRequest((Node.SequenceRequest) message);
+        else return false;
+        return true;
+    }
+    
+    public void linksChanged(Collection<Node.Neighbor> changed, String cause) {
+        requested.clear();
+        forwarded.clear();
+        nodes.begin();
+        for (Node.Neighbor neighbor : changed) {
+            if (!Double.isFinite(neighbor.distance))
+                neighbor.advertised = null;
+            updateDirectRoute(neighbor);
+        }
+        for (int node = nodes.next(0); node >= 0; node = nodes.next(node + 1))
+            updateAlternates(node);
+        
+        /* Detecting unreachable neighbors and broadcasting the
+         * distance vector should be atomic in order to avoid the
+         * count-to-infinity problem. No packet loss is assumed.
+         */
+        if (nodes.isChanged()) {
+            updateFeasibility();
+            host.logRoutes(cause, true);
+            host.neighbors().forEach(this::sendDistanceVector);
+        }
+        publish();
+        updateRequests();
+    }
+    public void stop() {
+        Convergence.done(starved.size());
+        starved.clear();
+    }
+    
+    private void receivedResyncRequest(Node.ResyncRequest request) {
+        Node.Neighbor sender = neighbors.get(request.source);
+        if (sender != null && Double.isFinite(sender.distance)) {
+            sender.advertised = null;
+            sendDistanceVector(sender);
+        }
+    }
+    
+    private void receivedDistanceVector(Node.DistanceVector vector) {
+        /* When a disconnected neighbor node becomes reachable
+         * again or a new node joins the network, it may send a
+         * distance vector before an echo request/reply.
+         */
+        double reportedDistance = vector.distances[vector.indexOf(address)];
+        
+        Node.Neighbor sender = neighbors.getOrDefault(vector.source,
+            new Node.Neighbor(vector.source, reportedDistance));
+        // Unless its link has been cut, in which case it is yet to notice
+        if (!Node.putIfAbsent(neighbors, vector.source, sender)
+                && !Double.isFinite(sender.distance)
+                && Double.isFinite(host.getDistance(sender)))
+            sender.distance = sender.linked = reportedDistance;
+        
+        // An incremental vector following a lost one cannot be relied on
+        if (vector.incremental && vector.sequence != sender.received + 1)
+            host.unicast(new Node.ResyncRequest(address), sender);
+        sender.received = vector.sequence;
+        
+        /* The vectors already in the mailbox are merged per sender, and
+         * processed together after them.
+         */
+        Node.DistanceVector queued = batch.put(vector.source, vector);
+        if (queued != null)
+            batch.put(vector.source, queued.merge(vector));
+        if (!Settings.coalescing)
+            receivedDistanceVectors();
+        else if (batch.size() == 1 && queued == null)
+            host.submit(this::receivedDistanceVectors);
+    }
+    private void receivedDistanceVectors() {
+        // The batch is taken first, so that a failure does not leave it stuck
+        List<Node.DistanceVector> vectors = new ArrayList<>(batch.values());
+        batch.clear();
+        
+        nodes.begin();
+        List<Node.Neighbor> informed = new ArrayList<>();
+        for (Node.DistanceVector vector : vectors) {
+            Node.Neighbor sender = neighbors.get(vector.source);
+            if (sender == null) // The link has expired since
+                continue;
+            nodes.checkpoint();
+            if (receivedDistanceVector(vector, sender))
+                informed.add(sender);
+        }
+        
+        boolean updated = nodes.isChanged();
+        if (updated)
+            updateFeasibility();
+        if (updated || !informed.isEmpty()) {
+            // A lone sender already knows what it has caused
+            Node.Neighbor sender = vectors.size() == 1 && informed.isEmpty()
+                ? neighbors.get(vectors.get(0).source) : null;
+            host.neighbors()
+                .filter(n -> (updated && n != sender) || informed.contains(n))
+                .forEach(this::sendDistanceVector);
+        }
+        publish();
+        if (!starved.isEmpty())
+            updateRequests();
+    }
+    private void publish() {
+        if (nodes.isChanged() || rerouted)
+            host.filterNodes();
+        rerouted = false;
+    }
+    /**
+     * @return Whether the sender should be informed.
+     */
+    private boolean receivedDistanceVector(Node.DistanceVector vector,
+            Node.Neighbor sender) {
+        int self = vector.indexOf(address);
+        double reportedDistance = vector.distances[self];
+        // Nor is the sender a route while its link is cut
+        if (nodes.find(vector.source) < 0
+                && Double.isFinite(sender.distance))
+            nodes.put(vector.source, reportedDistance, DIRECT);
+        
+        int length = vector.addresses.length;
+        if (reportedChanges.length < length)
+            reportedChanges = new boolean[Math.max(length,
+                2 * reportedChanges.length)];
+        // A new neighbor is answered, even if its routes change nothing
+        boolean inform = sender.reported == null;
+        updateReported(vector, sender, self);
+
+        for (int i = 0; i < vector.addresses.length; i++) {
+            if (i == self)
+                continue;
+            int destination = vector.addresses[i];
+            int sequence = vector.sequences[i];
+            int node = nodes.find(destination);
+            if (destination == vector.source) { // Issued by the sender
+                if (node >= 0 && nodes.hop(node) == DIRECT
+                        && nodes.sequence(node) != sequence)
+                    nodes.setSequence(node, sequence);
+                continue;
+            }
+            double newDistance = sender.distance + vector.distances[i];
+            boolean feasible =
+                isFeasible(destination, vector.distances[i], sequence);
+            
+            if (node < 0) {
+                if (!Double.isFinite(newDistance))
+                    continue;
+                if (feasible) {
+                    node = nodes.put(destination, newDistance, sender.address);
+                    nodes.setSequence(node, sequence);
+                }
+                else request(destination, sender);
+            } else if (newDistance < nodes.distance(node)
+                    || ((newDistance != nodes.distance(node)
+                    || sequence != nodes.sequence(node))
+                    && nodes.previousHop(node) == sender.address
+                    && nodes.hop(node) == sender.address)) {
+                if (feasible) {
+                    nodes.setHop(node, sender.address);
+                    nodes.setDistance(node, newDistance);
+                    nodes.setSequence(node, sequence);
+                    continue;
+                }
+                // An unfeasible update of the route withdraws it
+                if (nodes.hop(node) == sender.address)
+                    nodes.setDistance(node, Double.POSITIVE_INFINITY);
+                if (isBehind(node, sequence))
+                    continue;
+                request(destination, sender);
+            }
+        }
+        // A full vector omits the routes that the sender has removed
+        if (!vector.incremental)
+            for (int node = nodes.next(0); node >= 0;
+                    node = nodes.next(node + 1))
+                if (nodes.hop(node) == sender.address
+                        && vector.indexOf(nodes.address(node)) < 0) {
+                    nodes.setDistance(node, Double.POSITIVE_INFINITY);
+                    updateAlternates(node);
+                }
+        
+        host.neighbors().forEach(neighbor -> {
+            // A neighbor whose vector is yet to be processed may have no route
+            int node = nodes.find(neighbor.address);
+            if (node >= 0 && nodes.hop(node) != DIRECT
+                    && neighbor.distance <= nodes.distance(node)) {
+                nodes.setDistance(node, neighbor.distance);
+                setDirect(node, neighbor);
+            }
+        });
+        // The other alternates have not changed
+        for (int i = 0; i < vector.addresses.length; i++) {
+            int node = nodes.find(vector.addresses[i]);
+            if (i != self && node >= 0
+                    && (reportedChanges[i] || nodes.isChanged(node)))
+                updateAlternates(node);
+        }
+        
+        boolean updated = nodes.isChanged();
+        for (int i = 0; i < vector.addresses.length; i++)
+            if (i != self && isShorter(vector, i, reportedDistance)) {
+                inform = true;
+                /* Marked as unknown to the sender rather than removed, so
+                 * that it is still retracted if the route is removed before
+                 * a deferred vector.
+                 */
+                int entry = sender.advertised == null
+                    ? -1 : sender.advertised.find(vector.addresses[i]);
+                if (entry >= 0)
+                    sender.advertised.setDistance(entry, Double.NaN);
+            }
+        // Including the routes that a full vector has withdrawn by omission
+        for (int k = 0; k < nodes.logSize() && !inform; k++)
+            inform = isSplitChanged(nodes.logged(k), sender);
+        if (updated | inform)
+            logDistanceVector(vector, updated, inform);
+        return inform;
+    }
+    /* The routes reported by the sender are updated in place, where only the
+     * entries that have changed are written, and the ones that a full vector
+     * omits are removed.
+     */
+    private void updateReported(Node.DistanceVector vector,
+            Node.Neighbor sender, int self) {
+        RoutingTable reported = sender.reported;
+        if (reported == null)
+            reported = sender.reported =
+                new RoutingTable(2 * vector.addresses.length);
+        else if (!vector.incremental) {
+            int omitted = 0;
+            for (int route = reported.next(0); route >= 0;
+                    route = reported.next(route + 1))
+                if (vector.indexOf(reported.address(route)) < 0)
+                    omitted++;
+            if (omitted > 0) {
+                int[] addresses = new int[omitted];
+                for (int route = reported.next(0), k = 0; k < omitted;
+                        route = reported.next(route + 1))
+                    if (vector.indexOf(reported.address(route)) < 0)
+                        addresses[k++] = reported.address(route);
+                for (int address : addresses)
+                    reported.remove(address);
+            }
+        }
+        for (int i = 0; i < vector.addresses.length; i++) {
+            int route = i == self ? -1 : reported.find(vector.addresses[i]);
+            reportedChanges[i] = i != self && (route < 0
+                || reported.distance(route) != vector.distances[i]
+                || reported.sequence(route) != vector.sequences[i]);
+            if (reportedChanges[i])
+                reported.setSequence(reported.put(vector.addresses[i],
+                    vector.distances[i], DIRECT), vector.sequences[i]);
+        }
+    }
+    private boolean isFeasible(int destination, double distance,
+            int sequence) {
+        int node = feasible.find(destination);
+        return node < 0 || !Double.isFinite(distance)
+            || sequence > feasible.sequence(node)
+            || (sequence == feasible.sequence(node)
+                && distance < feasible.distance(node));
+    }
+    /* A report older than the feasibility distance of a reachable route
+     * lags behind the newer sequence number, which it will be followed by,
+     * so requesting another one would only outrun it again.
+     */
+    private boolean isBehind(int node, int sequence) {
+        int _node = feasible.find(nodes.address(node));
+        return Double.isFinite(nodes.distance(node)) && _node >= 0
+            && sequence < feasible.sequence(_node);
+    }
+    /* The feasibility distances are updated by the routes before they are
+     * advertised, which only makes them stricter.
+     */
+    private void updateFeasibility() {
+        for (int node = nodes.next(0); node >= 0; node = nodes.next(node + 1)) {
+            double distance = nodes.distance(node);
+            int sequence = nodes.sequence(node);
+            if (!Double.isFinite(distance))
+                continue;
+            if (!starved.isEmpty() && starved.remove(nodes.address(node)))
+                Convergence.done(1);
+            int _node = feasible.find(nodes.address(node));
+            if (_node < 0 || sequence > feasible.sequence(_node)
+                    || (sequence == feasible.sequence(_node)
+                        && distance < feasible.distance(_node))) {
+                _node = feasible.put(nodes.address(node), distance, DIRECT);
+                feasible.setSequence(_node, sequence);
+            }
+        }
+    }
+    
+    /* A request is forwarded towards the destination until it reaches a node
+     * that has a route with the requested sequence number, which then sends
+     * its routes back, or the destination, which issues the number.
+     */
+    private void request(int destination, Node.Neighbor neighbor) {
+        int node = feasible.find(destination), route = nodes.find(destination);
+        int sequence = node < 0 ? 0 : feasible.sequence(node) + 1;
+        if ((route < 0 || !Double.isFinite(nodes.distance(route)))
+                && starved.add(destination))
+            Convergence.add(1);
+        long key = requestKey(destination, neighbor.address);
+        if (requested.getOrDefault(key, -1) < sequence) {
+            requested.put(key, sequence);
+            host.unicast(new Node.SequenceRequest(address, destination,
+                sequence, Node.MAX_HOPS), neighbor);
+        }
+    }
+    private static long requestKey(int destination, int neighbor) {
+        return (long) destination << 32 | neighbor;
+    }
+    /* The requests that are still unanswered, e.g. since they have met a
+     * node without a route, follow the neighbor that advertises the shortest
+     * route as soon as it changes, and are repeated through it once per round
+     * of echoes. They are given up once no neighbor advertises a route.
+     */
+    private void updateRequests() {
+        for (Integer destination : new ArrayList<>(starved)) {
+            int node = nodes.find(destination);
+            Node.Neighbor shortest = null;
+            double distance = Double.POSITIVE_INFINITY;
+            for (Node.Neighbor neighbor : neighbors.values()) {
+                int route = neighbor.reported == null
+                    ? -1 : neighbor.reported.find(destination);
+                if (route >= 0 && Double.isFinite(neighbor.distance)
+                        && neighbor.reported.distance(route) < distance) {
+                    shortest = neighbor;
+                    distance = neighbor.reported.distance(route);
+                }
+            }
+            if ((node >= 0 && Double.isFinite(nodes.distance(node)))
+                    || shortest == null) {
+                starved.remove(destination);
+                Convergence.done(1);
+            }
+            else request(destination, shortest);
+        }
+    }
+    private void receivedSequenceRequest(Node.SequenceRequest request) {
+        Node.Neighbor sender = neighbors.get(request.source);
+        if (sender == null || !Double.isFinite(sender.distance))
+            return;
+        if (request.destination == address) {
+            if (issued < request.sequence) {
+                issued = request.sequence;
+                host.neighbors().forEach(this::sendDistanceVector);
+            }
+            else sendDistanceVector(sender);
+            return;
+        }
+        
+        int node = nodes.find(request.destination);
+        if (node < 0 || !Double.isFinite(nodes.distance(node)))
+            return;
+        if (nodes.sequence(node) >= request.sequence) {
+            sender.advertised = null;
+            sendDistanceVector(sender);
+        }
+        else if (request.hops > 1 && forwarded.getOrDefault(
+                request.destination, -1) < request.sequence) {
+            Node.Neighbor hop = neighbors.get(nodes.hop(node) == DIRECT
+                ? request.destination : nodes.hop(node));
+            if (hop == null || hop == sender)
+                return;
+            forwarded.put(request.destination, request.sequence);
+            host.unicast(new Node.SequenceRequest(address, request.destination,
+                request.sequence, request.hops - 1), hop);
+        }
+    }
+    
+    /* Whether the sender would reach the destination of the entry in a
+     * shorter distance through this node.
+     */
+    private boolean isShorter(Node.DistanceVector vector, int entry,
+            double reportedDistance) {
+        int node = nodes.find(vector.addresses[entry]);
+        return node >= 0 && reportedDistance + nodes.distance(node)
+            < vector.distances[entry];
+    }
+    
+    /* Whether the route has moved onto or off the sender, which split horizon
+     * now withholds from it or no longer does, so the sender does not know.
+     */
+    private boolean isSplitChanged(int destination, Node.Neighbor sender) {
+        int node = nodes.find(destination);
+        return node >= 0 && (nodes.hop(node) == sender.address)
+            != (nodes.previousHop(node) == sender.address);
+    }
+    
+    private void updateDirectRoute(Node.Neighbor neighbor) {
+        updateDescendants(neighbor);
+        int node = nodes.find(neighbor.address);
+        if (node < 0) {
+            if (Double.isFinite(neighbor.distance))
+                setDirect(nodes.put(neighbor.address, neighbor.distance,
+                    DIRECT), neighbor);
+        } else if ((nodes.hop(node) == DIRECT
+                && neighbor.distance != nodes.distance(node))
+                || (nodes.hop(node) != DIRECT
+                && neighbor.distance <= nodes.distance(node))) {
+            nodes.setDistance(node, neighbor.distance);
+            setDirect(node, neighbor);
+            if (!Double.isFinite(neighbor.distance))
+                failover(node);
+        }
+    }
+    /* A direct route takes the last sequence number issued by the neighbor,
+     * which it may have reported while the route was through another one.
+     */
+    private void setDirect(int node, Node.Neighbor neighbor) {
+        nodes.setHop(node, DIRECT);
+        int route = neighbor.reported == null
+            ? -1 : neighbor.reported.find(neighbor.address);
+        if (route >= 0)
+            nodes.setSequence(node, neighbor.reported.sequence(route));
+    }
+    /* The routes through a neighbor are based on the distance of its link,
+     * rather than of the route to it, since the packets are sent over the
+     * link. Taking another route to the neighbor would bypass the feasibility
+     * condition.
+     */
+    private void updateDescendants(Node.Neighbor neighbor) {
+        double linked = neighbor.linked;
+        neighbor.linked = neighbor.distance;
+        if (!Double.isFinite(linked) || linked == neighbor.distance)
+            return;
+        for (int n = nodes.next(0); n >= 0; n = nodes.next(n + 1))
+            if (nodes.hop(n) == neighbor.address && (Double.isFinite(
+                    neighbor.distance) || !failover(n)))
+                nodes.setDistance(n,
+                    nodes.distance(n) + neighbor.distance - linked);
+    }
+    
+    /* The alternates are recomputed from the routes advertised by the
+     * neighbors, and a route that is longer than the first one, e.g. since
+     * it has become unreachable, takes it. A shorter route that is not
+     * feasible is requested with a new sequence number, as in Babel
+     * (RFC 8966, 3.8.2.2), since it may never be advertised again otherwise.
+     */
+    private void updateAlternates(int node) {
+        int destination = nodes.address(node);
+        int hop = nodes.hop(node) == DIRECT ? destination : nodes.hop(node);
+        int[] hops = alternateHops;
+        double[] distances = alternateDistances;
+        int count = 0;
+        Node.Neighbor unfeasible = null;
+        for (Node.Neighbor neighbor : neighbors.values()) {
+            if (neighbor.address == hop)
+                continue;
+            double distance = alternateDistance(neighbor, destination);
+            if (!Double.isFinite(distance)) {
+                if (reportedDistance(neighbor, destination)
+                        < nodes.distance(node) && !isBehind(node,
+                            neighbor.reported.sequence(
+                                neighbor.reported.find(destination))))
+                    unfeasible = neighbor;
+                continue;
+            }
+            if (count == MAX_ALTERNATES && distance >= distances[count - 1])
+                continue;
+            int i = count < MAX_ALTERNATES ? count++ : count - 1;
+            for (; i > 0 && distances[i - 1] > distance; i--) {
+                hops[i] = hops[i - 1];
+                distances[i] = distances[i - 1];
+            }
+            hops[i] = neighbor.address;
+            distances[i] = distance;
+        }
+        if (count > 0 && distances[0] < nodes.distance(node)) {
+            take(node, neighbors.get(hops[0]), distances[0]);
+            updateAlternates(node);
+            return;
+        }
+        if (unfeasible != null)
+            request(destination, unfeasible);
+        
+        // The alternates are only copied once they change
+        int[] alternates = nodes.alternates(node);
+        if (!isPrefix(alternates, hops, count))
+            alternates = count > 0 ? Arrays.copyOf(hops, count) : null;
+        int equalCost = 0;
+        while (equalCost < count
+                && distances[equalCost] == nodes.distance(node))
+            equalCost++;
+        if (equalCost != nodes.equalCost(node) || (equalCost > 0
+                && alternates != nodes.alternates(node)))
+            rerouted = true;
+        nodes.setAlternates(node, alternates, equalCost);
+    }
+    /* Whether the alternates are the first hops, none if null */
+    private static boolean isPrefix(int[] alternates, int[] hops, int count) {
+        if ((alternates == null ? 0 : alternates.length) != count)
+            return false;
+        for (int i = 0; i < count; i++)
+            if (alternates[i] != hops[i])
+                return false;
+        return true;
+    }
+    /**
+     * @return Whether the route has been taken over by an alternate.
+     */
+    private boolean failover(int node) {
+        int[] alternates = nodes.alternates(node);
+        for (int i = 0; alternates != null && i < alternates.length; i++) {
+            Node.Neighbor neighbor = neighbors.get(alternates[i]);
+            double distance = neighbor == null ? Double.POSITIVE_INFINITY
+                : alternateDistance(neighbor, nodes.address(node));
+            if (Double.isFinite(distance)) {
+                take(node, neighbor, distance);
+                return true;
+            }
+        }
+        return false;
+    }
+    private void take(int node, Node.Neighbor neighbor, double distance) {
+        int destination = nodes.address(node);
+        nodes.setDistance(node, distance);
+        if (neighbor.address == destination) {
+            setDirect(node, neighbor);
+            return;
+        }
+        nodes.setHop(node, neighbor.address);
+        nodes.setSequence(node, neighbor.reported.sequence(
+            neighbor.reported.find(destination)));
+    }
+    /* The distance through the neighbor, which is infinite unless it is
+     * reachable and its route is feasible.
+     */
+    private double alternateDistance(Node.Neighbor neighbor, int destination) {
+        if (!Double.isFinite(neighbor.distance))
+            return Double.POSITIVE_INFINITY;
+        if (neighbor.address == destination)
+            return neighbor.distance;
+        RoutingTable reported = neighbor.reported;
+        int route = reported == null ? -1 : reported.find(destination);
+        if (route < 0 || !isFeasible(destination, reported.distance(route),
+                reported.sequence(route)))
+            return Double.POSITIVE_INFINITY;
+        return neighbor.distance + reported.distance(route);
+    }
+    /* The distance through the neighbor, whether it is feasible or not */
+    private double reportedDistance(Node.Neighbor neighbor, int destination) {
+        RoutingTable reported = neighbor.reported;
+        int route = reported == null ? -1 : reported.find(destination);
+        return route < 0 || neighbor.address == destination
+            ? Double.POSITIVE_INFINITY
+            : neighbor.distance + reported.distance(route);
+    }
+    
+    /* A vector that would follow the last one to the same neighbor within
+     * the pacing interval is deferred to the end of the interval, and then
+     * reflects the routes at that time. The vectors requested meanwhile are
+     * suppressed, since they are covered by the deferred one.
+     */
+    private void sendDistanceVector(Node.Neighbor destination) {
+        if (Settings.pacing > 0) {
+            long now = Simulator.currentTimeMillis();
+            long delay = destination.lastSent + Settings.pacing - now;
+            if (destination.deferred) {
+                suppressedVectors.increment();
+                return;
+            }
+            if (delay > 0) {
+                destination.deferred = true;
+                // Counted as in flight until it is sent
+                Convergence.sent(destination.address);
+                host.schedule(() -> sendDeferredDistanceVector(destination),
+                    delay);
+                return;
+            }
+            destination.lastSent = now;
+        }
+        sentVectors.increment();
+        
+        // The node itself is advertised for the sequence number it issues
+        int capacity = nodes.size() + 1;
+        if (Settings.incremental && destination.advertised != null)
+            capacity += destination.advertised.size(); // For the retractions
+        int[] entries = new int[capacity];
+        int length = 0;
+        if (!Settings.incremental) {
+            entries[length++] = address;
+            for (int node = nodes.next(0); node >= 0;
+                    node = nodes.next(node + 1))
+                if (nodes.hop(node) != destination.address)
+                    entries[length++] = nodes.address(node);
+            host.unicast(createDistanceVector(0, false, entries, length,
+                nodes), destination);
+            return;
+        }
+        
+        /* Only the entries that differ from the last advertised ones are
+         * sent, besides the destination itself, from which the receiver
+         * learns its distance. The entries withheld by split horizon are
+         * retracted once, so that the receiver does not keep them as the
+         * alternates of its routes.
+         */
+        boolean incremental = destination.advertised != null;
+        if (!incremental)
+            destination.advertised = new RoutingTable(2 * nodes.size());
+        RoutingTable advertised = destination.advertised;
+        int self = advertised.find(address);
+        if (self < 0 || advertised.sequence(self) != issued) {
+            entries[length++] = address;
+            advertised.setSequence(advertised.put(address, 0, DIRECT), issued);
+        }
+        for (int node = nodes.next(0); node >= 0; node = nodes.next(node + 1)) {
+            int target = nodes.address(node), _node = advertised.find(target);
+            boolean withheld = nodes.hop(node) == destination.address;
+            double distance =
+                withheld ? Double.POSITIVE_INFINITY : nodes.distance(node);
+            if (withheld && (_node < 0
+                    || !Double.isFinite(advertised.distance(_node))))
+                continue;
+            if (!incremental || target == destination.address || _node < 0
+                    || advertised.distance(_node) != distance
+                    || advertised.sequence(_node) != nodes.sequence(node))
+                entries[length++] = target;
+            advertised.setSequence(
+                advertised.put(target, distance, nodes.hop(node)),
+                nodes.sequence(node));
+        }
+        // The routes removed since are retracted, e.g. by a deferred vector
+        for (int _node = advertised.next(0); _node >= 0;
+                _node = advertised.next(_node + 1)) {
+            int target = advertised.address(_node);
+            if (target != address && nodes.find(target) < 0
+                    && advertised.distance(_node) != Double.POSITIVE_INFINITY) {
+                entries[length++] = target;
+                advertised.setDistance(_node, Double.POSITIVE_INFINITY);
+            }
+        }
+        host.unicast(createDistanceVector(++destination.sequence, incremental,
+            entries, length, advertised), destination);
+    }
+    /* The entries are sorted, since the table is only nearly in order */
+    private Node.DistanceVector createDistanceVector(int sequence,
+            boolean incremental, int[] entries, int length,
+            RoutingTable routes) {
+        int[] addresses = Arrays.copyOf(entries, length);
+        Arrays.sort(addresses);
+        double[] distances = new double[length];
+        int[] sequences = new int[length];
+        for (int i = 0; i < length; i++) {
+            if (addresses[i] == address) {
+                sequences[i] = issued;
+                continue;
+            }
+            int node = routes.find(addresses[i]);
+            distances[i] = routes.distance(node);
+            sequences[i] = routes.sequence(node);
+        }
+        return new Node.DistanceVector(address, sequence, incremental,
+            addresses, distances, sequences);
+    }
+    private void sendDeferredDistanceVector(Node.Neighbor destination) {
+        destination.deferred = false;
+        if (neighbors.get(destination.address) == destination
+                && Double.isFinite(destination.distance))
+            sendDistanceVector(destination);
+        Convergence.arrived(destination.address);
+    }
+    public static long getSentVectors() {
+        return sentVectors.sum();
+    }
+    public static long getSuppressedVectors() {
+        return suppressedVectors.sum();
+    }
+    
+    private void logDistanceVector(Node.DistanceVector vector,
+            boolean updated, boolean inform) {
+        if (!Settings.verbose) return;
+        int self = vector.indexOf(address);
+        double reportedDistance = vector.distances[self];
+        List<String> entries = new ArrayList<>(vector.addresses.length);
+        for (int i = 0; i < vector.addresses.length; i++)
+            entries.add((i != self && isShorter(vector, i, reportedDistance)
+                ? "*" : "") + vector.entry(i));
+        Program.log("%s: %s %c%c %s: %s", host, host.routes(updated),
+            updated ? '<' : '>', inform ? '>' : '<',
+            Node.id(vector.source), Node.join("; ", entries));
+    }
+}
@@ -0,0 +1,193 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An immutable snapshot of the routes to the reachable destinations, i.e.
+ * their next hops and distances, which is compiled from a routing table.
+ *
+ * The addresses of the nodes are consecutive, so the routes are kept in arrays
+ * indexed by the address. A node publishes a new snapshot whenever its routes
+ * change, so that the packets can be forwarded and the routes can be queried
+ * without a lock. The snapshots of a node are numbered by their version, which
+ * tells whether a cached route is still up to date.
+ *
+ * The destinations that have several equal-cost next hops also have a set of
+ * them, among which the packets are spread by their flow.
+ *
+ * The arrays are split into pages, so that a snapshot is compiled from the
+ * previous one by copying only the pages of the routes that have changed in
+ * the transaction of the table, and shares the other pages with it.
+ *
+ * @author Burak Gök
+ */
+public final class ForwardingTable {
+    public static final int NONE = -1;
+    private static final int SHIFT = 6, PAGE = 1 << SHIFT, MASK = PAGE - 1;
+    // Shared by the pages without routes until one is added to them
+    private static final int[] NO_HOPS = new int[PAGE];
+    private static final double[] NO_DISTANCES = new double[PAGE];
+    static {
+        Arrays.fill(NO_HOPS, NONE);
+        Arrays.fill(NO_DISTANCES, Double.POSITIVE_INFINITY);
+    }
+
+    private final long version;
+    private final int base; // A multiple of the page size
+    private final int[][] hops;
+    private final double[][] distances;
+    private final int[][][] paths; // Equal-cost next hops, or null if none
+
+    private ForwardingTable(long version, int base, int[][] hops,
+            double[][] distances, int[][][] paths) {
+        this.version = version;
+        this.base = base;
+        this.hops = hops;
+        this.distances = distances;
+        this.paths = paths;
+    }
+
+    public static ForwardingTable compile(RoutingTable table, long version) {
+        return compile(table, null, version);
+    }
+    /**
+     * @param previous The snapshot of the table before its transaction, or
+     *        null to compile the whole table.
+     */
+    public static ForwardingTable compile(RoutingTable table,
+            ForwardingTable previous, long version) {
+        boolean whole = previous == null || previous.hops.length == 0;
+        int count = whole ? table.size() : table.logSize();
+        int min = whole ? Integer.MAX_VALUE : previous.base;
+        int max = whole ? Integer.MIN_VALUE
+            : previous.base + (previous.hops.length << SHIFT) - 1;
+        for (int k = 0, i = -1; k < count; k++) {
+            i = whole ? table.next(i + 1) : table.find(table.logged(k));
+            if (i >= 0 && Double.isFinite(table.distance(i))) {
+                min = Math.min(min, table.address(i));
+                max = Math.max(max, table.address(i));
+            }
+        }
+        if (min > max)
+            return new ForwardingTable(version, 0, new int[0][],
+                new double[0][], new int[0][][]);
+
+        int base = min & ~MASK, pages = ((max - base) >>> SHIFT) + 1;
+        int[][] hops = new int[pages][];
+        double[][] distances = new double[pages][];
+        int[][][] paths = new int[pages][][];
+        Arrays.fill(hops, NO_HOPS);
+        Arrays.fill(distances, NO_DISTANCES);
+        if (!whole) {
+            int offset = (previous.base - base) >>> SHIFT;
+            int length = previous.hops.length;
+            System.arraycopy(previous.hops, 0, hops, offset, length);
+            System.arraycopy(previous.distances, 0, distances, offset, length);
+            System.arraycopy(previous.paths, 0, paths, offset, length);
+        }
+
+        boolean[] copied = new boolean[pages]; // Owned by the new snapshot
+        for (int k = 0, i = -1; k < count; k++) {
+            int address = whole ? table.address(i = table.next(i + 1))
+                : table.logged(k);
+            int slot = whole ? i : table.find(address);
+            int page = (address - base) >>> SHIFT, j = address & MASK;
+            if (page >= pages) // Unreachable outside of the pages
+                continue;
+            if (!copied[page]) {
+                copied[page] = true;
+                hops[page] = hops[page].clone();
+                distances[page] = distances[page].clone();
+                if (paths[page] != null)
+                    paths[page] = paths[page].clone();
+            }
+            if (slot < 0 || !Double.isFinite(table.distance(slot))) {
+                hops[page][j] = NONE;
+                distances[page][j] = Double.POSITIVE_INFINITY;
+                if (paths[page] != null)
+                    paths[page][j] = null;
+                continue;
+            }
+            int hop = table.hop(slot);
+            hops[page][j] = hop == RoutingTable.DIRECT ? address : hop;
+            distances[page][j] = table.distance(slot);
+            int equalCost = table.equalCost(slot);
+            if (equalCost == 0) {
+                if (paths[page] != null)
+                    paths[page][j] = null;
+                continue;
+            }
+            if (paths[page] == null)
+                paths[page] = new int[PAGE][];
+            int[] path = new int[equalCost + 1];
+            path[0] = hops[page][j];
+            System.arraycopy(table.alternates(slot), 0, path, 1, equalCost);
+            paths[page][j] = path;
+        }
+        return new ForwardingTable(version, base, hops, distances, paths);
+    }
+
+    public long version() {
+        return version;
+    }
+
+    /**
+     * @return The address of the next hop, or NONE if the destination is
+     *         unreachable.
+     */
+    public int nextHop(int destination) {
+        int page = (destination - base) >>> SHIFT;
+        return page < hops.length ? hops[page][destination & MASK] : NONE;
+    }
+    /**
+     * Picks one of the equal-cost next hops by the flow, so that the packets
+     * of the same flow take the same path.
+     *
+     * @return The address of the next hop, or NONE if the destination is
+     *         unreachable.
+     */
+    public int nextHop(int destination, int flow) {
+        int page = (destination - base) >>> SHIFT, j = destination & MASK;
+        if (page >= hops.length)
+            return NONE;
+        int[] path = paths[page] == null ? null : paths[page][j];
+        return path == null ? hops[page][j]
+            : path[Integer.remainderUnsigned(flow * 0x9E3779B9, path.length)];
+    }
+    /**
+     * @return The addresses of the equal-cost next hops, which are empty if
+     *         the destination is unreachable.
+     */
+    public int[] nextHops(int destination) {
+        int page = (destination - base) >>> SHIFT, j = destination & MASK;
+        if (page >= hops.length || hops[page][j] == NONE)
+            return new int[0];
+        int[] path = paths[page] == null ? null : paths[page][j];
+        return path == null ? new int[] {hops[page][j]} : path.clone();
+    }
+    /**
+     * @return The distance to the destination, which is infinite if it is
+     *         unreachable.
+     */
+    public double distance(int destination) {
+        int page = (destination - base) >>> SHIFT;
+        return page < hops.length ? distances[page][destination & MASK]
+            : Double.POSITIVE_INFINITY;
+    }
+
+    public String toString() {
+        List<String> routes = new ArrayList<>();
+        for (int i = 0; i < hops.length << SHIFT; i++) {
+            int hop = hops[i >>> SHIFT][i & MASK];
+            if (hop == NONE)
+                continue;
+            String destination = Node.id(base + i);
+            String distance = Node.format(distances[i >>> SHIFT][i & MASK]);
+            routes.add(hop == base + i
+                ? String.format("%s (%s)", destination, distance)
+                : String.format("%s > %s (%s)", Node.id(hop), destination,
+                    distance));
+        }
+        return String.join("; ", routes);
+    }
+}
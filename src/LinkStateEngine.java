@@ -0,0 +1,219 @@
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The link-state engine, in which every node floods the links to its
+ * responsive neighbors through the network, and computes the shortest paths
+ * to all nodes from the links of all of them.
+ *
+ * A node keeps the latest link state of each origin by its sequence number,
+ * and forwards a newer one to all its neighbors but the one it came from. A
+ * neighbor that becomes responsive is sent all the link states, so that it
+ * catches up with the network. The link states of the departed nodes are
+ * kept, but their nodes are unreachable, since no other node has a link to
+ * them anymore.
+ *
+ * @author Burak Gök
+ */
+class LinkStateEngine implements RoutingEngine {
+    private static final int DIRECT = RoutingTable.DIRECT;
+    private static final LongAdder sentLinkStates = new LongAdder();
+
+    private final Node host; // The node the engine runs for
+    private final int address;
+    private final RoutingTable nodes;
+    private final Map<Integer, Node.LinkState> database = new HashMap<>();
+    private int sequence = 0;
+
+    /* The shortest path tree indexed by the address minus the base, and its
+     * heap, which are reused between the computations.
+     */
+    private int base;
+    private double[] distances = new double[0];
+    private int[] hops = new int[0], heap = new int[0], positions = new int[0];
+
+    LinkStateEngine(Node host) {
+        this.host = host;
+        address = host.getAddress();
+        nodes = host.nodes;
+    }
+
+    public void start() {
+        linksChanged(host.neighbors.values(), "start");
+    }
+
+    public boolean receive(Node.Message message) {
+        if (!(message instanceof Node.LinkState))
+            return false;
+        Node.LinkState state = (Node.LinkState) message;
+        Node.LinkState known = database.get(state.origin);
+        if (state.origin == address
+                || (known != null && state.sequence <= known.sequence))
+            return true;
+        database.put(state.origin, state);
+        flood(state, state.source);
+        compute("link state");
+        return true;
+    }
+
+    public void linksChanged(Collection<Node.Neighbor> neighbors,
+            String cause) {
+        Node.LinkState previous = database.get(address),
+                       current = originate();
+        // The neighbors that have become responsive catch up first
+        host.neighbors().filter(neighbor -> previous == null
+                || Arrays.binarySearch(previous.addresses, neighbor.address) < 0)
+            .forEach(neighbor -> database.values().forEach(state -> {
+                host.unicast(state.forwardedBy(address), neighbor);
+                sentLinkStates.increment();
+            }));
+
+        if (previous == null
+                || !Arrays.equals(previous.addresses, current.addresses)
+                || !Arrays.equals(previous.distances, current.distances)) {
+            sequence = current.sequence;
+            database.put(address, current);
+            flood(current, address);
+            compute(cause);
+        }
+    }
+    private Node.LinkState originate() {
+        int[] addresses = host.neighbors().mapToInt(n -> n.address)
+            .sorted().toArray();
+        double[] distances = new double[addresses.length];
+        for (int i = 0; i < addresses.length; i++)
+            distances[i] = host.neighbors.get(addresses[i]).distance;
+        return new Node.LinkState(address, address, sequence + 1, addresses,
+            distances);
+    }
+    private void flood(Node.LinkState state, int except) {
+        Node.LinkState forwarded = state.forwardedBy(address);
+        host.neighbors().filter(neighbor -> neighbor.address != except)
+            .forEach(neighbor -> {
+                host.unicast(forwarded, neighbor);
+                sentLinkStates.increment();
+            });
+    }
+
+    /* Dijkstra's algorithm with a binary heap of the addresses, which are
+     * consecutive and thus index the arrays directly.
+     */
+    private void compute(String cause) {
+        int min = address, max = address;
+        for (Node.LinkState state : database.values()) {
+            min = Math.min(min, state.origin);
+            max = Math.max(max, state.origin);
+            if (state.addresses.length > 0) {
+                min = Math.min(min, state.addresses[0]);
+                max = Math.max(max, state.addresses[state.addresses.length - 1]);
+            }
+        }
+        base = min;
+        int length = max - min + 1;
+        if (distances.length < length) {
+            distances = new double[length];
+            hops = new int[length];
+            heap = new int[length];
+            positions = new int[length];
+        }
+        Arrays.fill(distances, 0, length, Double.POSITIVE_INFINITY);
+        Arrays.fill(positions, 0, length, -1);
+
+        distances[address - base] = 0;
+        hops[address - base] = address;
+        int size = push(0, address - base);
+        while (size > 0) {
+            int u = heap[0];
+            size = pop(size);
+            Node.LinkState state = database.get(u + base);
+            if (state == null)
+                continue;
+            for (int i = 0; i < state.addresses.length; i++) {
+                int v = state.addresses[i] - base;
+                double distance = distances[u] + state.distances[i];
+                if (distance < distances[v]) {
+                    distances[v] = distance;
+                    hops[v] = u + base == address ? v + base : hops[u];
+                    if (positions[v] < 0)
+                        size = push(size, v);
+                    else siftUp(v);
+                }
+            }
+        }
+        update(length, cause);
+    }
+    /* The routes that have changed are written to the table of the node */
+    private void update(int length, String cause) {
+        nodes.begin();
+        for (int n = nodes.next(0); n >= 0; n = nodes.next(n + 1)) {
+            int v = nodes.address(n) - base;
+            if (v < 0 || v >= length || !Double.isFinite(distances[v]))
+                nodes.setDistance(n, Double.POSITIVE_INFINITY);
+        }
+        for (int v = 0; v < length; v++) {
+            if (v + base == address || !Double.isFinite(distances[v]))
+                continue;
+            int hop = hops[v] == v + base ? DIRECT : hops[v];
+            int n = nodes.find(v + base);
+            if (n < 0 || nodes.distance(n) != distances[v]
+                    || nodes.hop(n) != hop)
+                nodes.put(v + base, distances[v], hop);
+        }
+        if (nodes.isChanged()) {
+            host.logRoutes(cause, true);
+            host.filterNodes();
+        }
+    }
+
+    /* The heap is ordered by the distance, and the position of each index in
+     * it is kept for decreasing its key.
+     */
+    private int push(int size, int v) {
+        heap[size] = v;
+        positions[v] = size;
+        siftUp(v);
+        return size + 1;
+    }
+    private int pop(int size) {
+        positions[heap[0]] = -2; // Settled
+        int last = heap[--size];
+        if (size > 0) {
+            heap[0] = last;
+            positions[last] = 0;
+            siftDown(size);
+        }
+        return size;
+    }
+    private void siftUp(int v) {
+        int i = positions[v];
+        for (int parent; i > 0
+                && distances[heap[parent = (i - 1) / 2]] > distances[v];
+                i = parent) {
+            heap[i] = heap[parent];
+            positions[heap[i]] = i;
+        }
+        heap[i] = v;
+        positions[v] = i;
+    }
+    private void siftDown(int size) {
+        int v = heap[0], i = 0;
+        for (int child; (child = 2 * i + 1) < size; i = child) {
+            if (child + 1 < size
+                    && distances[heap[child + 1]] < distances[heap[child]])
+                child++;
+            if (distances[heap[child]] >= distances[v])
+                break;
+            heap[i] = heap[child];
+            positions[heap[i]] = i;
+        }
+        heap[i] = v;
+        positions[v] = i;
+    }
+
+    public static long getSentLinkStates() {
+        return sentLinkStates.sum();
+    }
+}
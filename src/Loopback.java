@@ -0,0 +1,89 @@
+import java.io.IOException;
+import java.net.SocketException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An in-process transport that hands the messages directly to the inboxes of
+ * the destination nodes, without encoding them.
+ *
+ * Like a datagram socket, an inbox has a limited capacity. The messages that
+ * arrive when it is full are dropped.
+ *
+ * @author Burak Gök
+ */
+public class Loopback {
+    private final Map<Integer, Endpoint> endpoints = new ConcurrentHashMap<>();
+    private final int capacity;
+    private final LongAdder dropped = new LongAdder();
+
+    public Loopback(int capacity) {
+        this.capacity = capacity;
+    }
+
+    public Transport open(int address) {
+        Endpoint endpoint = new Endpoint(address);
+        endpoints.put(address, endpoint);
+        return endpoint;
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    private class Endpoint implements Transport {
+        private final int address;
+        private final BoundedQueue<Object> inbox = new BoundedQueue<>(capacity);
+        private volatile Thread receiver;
+        private volatile boolean closed = false;
+
+        public Endpoint(int address) {
+            this.address = address;
+        }
+
+        public Object receive() throws IOException {
+            while (true) {
+                Object message = inbox.poll();
+                if (message != null)
+                    return message;
+                if (closed)
+                    throw new SocketException("Socket closed");
+
+                /* The inbox is checked again after announcing the receiver,
+                 * so that a message offered in between is not missed.
+                 */
+                receiver = Thread.currentThread();
+                if (inbox.isEmpty() && !closed)
+                    LockSupport.park(this);
+                receiver = null;
+            }
+        }
+
+        public void send(Object message, int... addresses) {
+            for (int address : addresses) {
+                Endpoint endpoint = endpoints.get(address);
+                if (endpoint != null)
+                    endpoint.deliver(message);
+            }
+        }
+
+        private void deliver(Object message) {
+            if (!inbox.offer(message))
+                dropped.increment();
+            Thread thread = receiver;
+            if (thread != null)
+                LockSupport.unpark(thread);
+        }
+
+        public void close() {
+            endpoints.remove(address, this);
+            closed = true;
+            Thread thread = receiver;
+            if (thread != null)
+                LockSupport.unpark(thread);
+        }
+    }
+
+}
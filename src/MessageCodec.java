@@ -0,0 +1,331 @@
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Binary wire format of the protocol messages.
+ *
+ * Every message starts with a version byte and a type tag, which are followed
+ * by the source address. A distance vector additionally carries whether it is
+ * incremental, its sequence number, the number of its entries and an
+ * (address, distance, sequence number) triple for each of them in ascending
+ * order of address.
+ *
+ * A link state carries its origin, its sequence number, the number of the
+ * links of the origin and an (address, distance) pair for each of them in
+ * ascending order of address.
+ *
+ * An echo request carries the time it is sent at, which is returned by its
+ * reply. A data packet carries its origin, its destination and the number of
+ * hops it has been forwarded.
+ *
+ * A message that does not fit into a packet is split into fragments, each of
+ * which carries the identifier of the message, its length and the offset of
+ * the fragment in it.
+ *
+ * @author Burak Gök
+ */
+public final class MessageCodec {
+    public static final byte VERSION = 4;
+    private static final byte DISTANCE_VECTOR = 1,
+                              ECHO_REQUEST = 2,
+                              ECHO_REPLY = 3,
+                              RESYNC_REQUEST = 4,
+                              FRAGMENT = 5,
+                              DATA_PACKET = 6,
+                              GOODBYE = 7,
+                              LINK_STATE = 8,
+                              SEQUENCE_REQUEST = 9;
+    public static final int FRAGMENT_HEADER_LENGTH = 2 + 4 * Integer.BYTES;
+    private static final int MAX_LENGTH = 16 << 20;
+    private static final int HEADER_LENGTH = 2 + Integer.BYTES,
+                             VECTOR_HEADER_LENGTH = 1 + 2 * Integer.BYTES,
+                             PACKET_HEADER_LENGTH = 3 * Integer.BYTES,
+                             STATE_HEADER_LENGTH = 3 * Integer.BYTES,
+                             REQUEST_LENGTH = 3 * Integer.BYTES,
+                             ENTRY_LENGTH = Integer.BYTES + Double.BYTES,
+                             VECTOR_ENTRY_LENGTH = ENTRY_LENGTH + Integer.BYTES;
+
+    private MessageCodec() {}
+
+    public static int length(Object message) {
+        return message instanceof Node.DistanceVector
+            ? HEADER_LENGTH + VECTOR_HEADER_LENGTH + VECTOR_ENTRY_LENGTH
+                * ((Node.DistanceVector) message).addresses.length
+            : message instanceof Node.LinkState
+            ? HEADER_LENGTH + STATE_HEADER_LENGTH
+                + ENTRY_LENGTH * ((Node.LinkState) message).addresses.length
+            : message instanceof Node.DataPacket
+            ? HEADER_LENGTH + PACKET_HEADER_LENGTH
+            : message instanceof Node.SequenceRequest
+            ? HEADER_LENGTH + REQUEST_LENGTH
+            : message instanceof Node.Echo
+            ? HEADER_LENGTH + Long.BYTES
+            : HEADER_LENGTH;
+    }
+
+    public static void encode(Object message, ByteBuffer buffer) {
+        buffer.put(VERSION);
+        if (message instanceof Node.DistanceVector) {
+            Node.DistanceVector vector = (Node.DistanceVector) message;
+            buffer.put(DISTANCE_VECTOR).putInt(vector.source)
+                .put((byte) (vector.incremental ? 1 : 0))
+                .putInt(vector.sequence).putInt(vector.addresses.length);
+            for (int i = 0; i < vector.addresses.length; i++)
+                buffer.putInt(vector.addresses[i]).putDouble(vector.distances[i])
+                    .putInt(vector.sequences[i]);
+        }
+        else if (message instanceof Node.LinkState) {
+            Node.LinkState state = (Node.LinkState) message;
+            buffer.put(LINK_STATE).putInt(state.source).putInt(state.origin)
+                .putInt(state.sequence).putInt(state.addresses.length);
+            for (int i = 0; i < state.addresses.length; i++)
+                buffer.putInt(state.addresses[i]).putDouble(state.distances[i]);
+        }
+        else if (message instanceof Node.DataPacket) {
+            Node.DataPacket packet = (Node.DataPacket) message;
+            buffer.put(DATA_PACKET).putInt(packet.source).putInt(packet.origin)
+                .putInt(packet.destination).putInt(packet.hops);
+        }
+        else if (message instanceof Node.Echo) {
+            Node.Echo echo = (Node.Echo) message;
+            buffer.put(message instanceof Node.EchoRequest
+                ? ECHO_REQUEST : ECHO_REPLY)
+                .putInt(echo.source).putLong(echo.timestamp);
+        }
+        else if (message instanceof Node.ResyncRequest)
+            buffer.put(RESYNC_REQUEST).putInt(((Node.Message) message).source);
+        else if (message instanceof Node.SequenceRequest) {
+            Node.SequenceRequest request = (Node.SequenceRequest) message;
+            buffer.put(SEQUENCE_REQUEST).putInt(request.source)
+                .putInt(request.destination).putInt(request.sequence)
+                .putInt(request.hops);
+        }
+        else if (message instanceof Node.Goodbye)
+            buffer.put(GOODBYE).putInt(((Node.Message) message).source);
+        else throw new IllegalArgumentException(
+            String.format("Unknown message: %s", message));
+    }
+
+    public static boolean isFragment(ByteBuffer buffer) {
+        return buffer.remaining() >= 2
+            && buffer.get(buffer.position() + 1) == FRAGMENT;
+    }
+
+    /**
+     * Writes the fragment of an encoded message that starts at the specified
+     * offset, filling the rest of the buffer.
+     *
+     * @param message A heap buffer holding an encoded message between its
+     *                position and limit.
+     * @return The offset of the next fragment.
+     */
+    public static int encodeFragment(ByteBuffer message, int id, int offset,
+            ByteBuffer buffer) {
+        int start = message.position(), length = message.remaining();
+        int chunk = Math.min(length - offset,
+            buffer.remaining() - FRAGMENT_HEADER_LENGTH);
+        buffer.put(VERSION).put(FRAGMENT).putInt(message.getInt(start + 2))
+            .putInt(id).putInt(length).putInt(offset)
+            .put(message.array(), message.arrayOffset() + start + offset, chunk);
+        return offset + chunk;
+    }
+
+    public static Object decode(ByteBuffer buffer) throws ProtocolException {
+        if (buffer.remaining() < HEADER_LENGTH)
+            throw new ProtocolException("Truncated message");
+        byte version = buffer.get();
+        if (version != VERSION)
+            throw new ProtocolException(
+                String.format("Unsupported version: %d", version));
+
+        byte type = buffer.get();
+        int source = buffer.getInt();
+        switch (type) {
+            case DISTANCE_VECTOR:
+                if (buffer.remaining() < VECTOR_HEADER_LENGTH)
+                    throw new ProtocolException("Truncated distance vector");
+                boolean incremental = buffer.get() != 0;
+                int sequence = buffer.getInt(), length = buffer.getInt();
+                if (length < 0
+                        || buffer.remaining() < length * VECTOR_ENTRY_LENGTH)
+                    throw new ProtocolException("Truncated distance vector");
+                int[] addresses = new int[length], sequences = new int[length];
+                double[] distances = new double[length];
+                for (int i = 0; i < length; i++) {
+                    addresses[i] = buffer.getInt();
+                    distances[i] = buffer.getDouble();
+                    sequences[i] = buffer.getInt();
+                    if (i > 0 && addresses[i] <= addresses[i - 1])
+                        throw new ProtocolException("Unsorted distance vector");
+                }
+                return new Node.DistanceVector(source, sequence, incremental,
+                    addresses, distances, sequences);
+            case LINK_STATE:
+                if (buffer.remaining() < STATE_HEADER_LENGTH)
+                    throw new ProtocolException("Truncated link state");
+                int origin = buffer.getInt();
+                sequence = buffer.getInt();
+                length = buffer.getInt();
+                if (length < 0 || buffer.remaining() < length * ENTRY_LENGTH)
+                    throw new ProtocolException("Truncated link state");
+                addresses = new int[length];
+                distances = new double[length];
+                for (int i = 0; i < length; i++) {
+                    addresses[i] = buffer.getInt();
+                    distances[i] = buffer.getDouble();
+                    if (i > 0 && addresses[i] <= addresses[i - 1])
+                        throw new ProtocolException("Unsorted link state");
+                }
+                return new Node.LinkState(
+                    source, origin, sequence, addresses, distances);
+            case DATA_PACKET:
+                if (buffer.remaining() < PACKET_HEADER_LENGTH)
+                    throw new ProtocolException("Truncated data packet");
+                return new Node.DataPacket(source, buffer.getInt(),
+                    buffer.getInt(), buffer.getInt());
+            case ECHO_REQUEST:
+            case ECHO_REPLY:
+                if (buffer.remaining() < Long.BYTES)
+                    throw new ProtocolException("Truncated echo");
+                long timestamp = buffer.getLong();
+                return type == ECHO_REQUEST
+                    ? new Node.EchoRequest(source, timestamp)
+                    : new Node.EchoReply(source, timestamp);
+            case RESYNC_REQUEST:
+                return new Node.ResyncRequest(source);
+            case SEQUENCE_REQUEST:
+                if (buffer.remaining() < REQUEST_LENGTH)
+                    throw new ProtocolException("Truncated sequence request");
+                return new Node.SequenceRequest(source, buffer.getInt(),
+                    buffer.getInt(), buffer.getInt());
+            case GOODBYE:
+                return new Node.Goodbye(source);
+            default:
+                throw new ProtocolException(
+                    String.format("Unknown message type: %d", type));
+        }
+    }
+
+    /**
+     * Collects the fragments of the messages until they are complete. The
+     * partial messages that are not completed within their lifetime, or that
+     * exceed the capacity in number or in bytes, are discarded starting from
+     * the oldest one. A fragment that has already been received is ignored.
+     *
+     * It is not thread-safe.
+     */
+    public static class Reassembler {
+        private final int capacity, bytes;
+        private final long lifetime;
+        private final Map<Long, Partial> partials = new LinkedHashMap<>();
+        private long buffered = 0; // Bytes of the partial messages
+
+        /**
+         * @param capacity The maximum number of the partial messages.
+         * @param bytes The maximum total length of the partial messages.
+         */
+        public Reassembler(int capacity, int bytes, long lifetime) {
+            this.capacity = capacity;
+            this.bytes = bytes;
+            this.lifetime = lifetime;
+        }
+
+        /**
+         * @param buffer A fragment.
+         * @return The message if the fragment completes it, or null.
+         */
+        public ByteBuffer add(ByteBuffer buffer) throws ProtocolException {
+            if (buffer.remaining() < FRAGMENT_HEADER_LENGTH
+                    || buffer.get() != VERSION || buffer.get() != FRAGMENT)
+                throw new ProtocolException("Malformed fragment");
+            long key = (long) buffer.getInt() << 32 | buffer.getInt() & 0xFFFFFFFFL;
+            int length = buffer.getInt(), offset = buffer.getInt();
+            int chunk = buffer.remaining();
+            if (length > MAX_LENGTH || offset < 0 || offset + chunk > length)
+                throw new ProtocolException("Malformed fragment");
+            if (length > bytes)
+                throw new ProtocolException("Fragmented message too long");
+
+            long now = System.currentTimeMillis();
+            evict(now, 0);
+            Partial partial = partials.get(key);
+            if (partial == null) {
+                evict(now, length);
+                partials.put(key, partial = new Partial(length, now));
+                buffered += length;
+            }
+            else if (partial.message.length != length)
+                throw new ProtocolException("Malformed fragment");
+            int received = partial.receive(offset, offset + chunk);
+            if (received == 0)
+                return null;
+            buffer.get(partial.message, offset, chunk);
+            if ((partial.remaining -= received) > 0)
+                return null;
+            partials.remove(key);
+            buffered -= length;
+            return ByteBuffer.wrap(partial.message);
+        }
+
+        /* Discards the partial messages that have outlived their lifetime,
+         * and the oldest ones while the capacity would be exceeded by a new
+         * message of the specified length.
+         */
+        private void evict(long now, int length) {
+            int count = length > 0 ? 1 : 0;
+            for (Iterator<Partial> iterator = partials.values().iterator();
+                    iterator.hasNext();) {
+                Partial partial = iterator.next();
+                if (partials.size() + count <= capacity
+                        && buffered + length <= bytes
+                        && now - partial.created <= lifetime)
+                    break;
+                iterator.remove();
+                buffered -= partial.message.length;
+            }
+        }
+
+        private static class Partial {
+            final byte[] message;
+            final long created;
+            int remaining;
+            // The received ranges of the message, from their start to end
+            private final TreeMap<Integer, Integer> ranges = new TreeMap<>();
+
+            Partial(int length, long created) {
+                message = new byte[length];
+                this.created = created;
+                remaining = length;
+            }
+
+            /**
+             * Merges the range into the received ones.
+             *
+             * @return The number of the bytes in the range that have not
+             *         been received before.
+             */
+            int receive(int start, int end) {
+                if (start == end)
+                    return 0;
+                int received = end - start, low = start, high = end;
+                Map.Entry<Integer, Integer> range = ranges.floorEntry(start);
+                if (range == null || range.getValue() < start)
+                    range = ranges.ceilingEntry(start);
+                while (range != null && range.getKey() <= end) {
+                    received -= Math.max(0, Math.min(end, range.getValue())
+                        - Math.max(start, range.getKey()));
+                    low = Math.min(low, range.getKey());
+                    high = Math.max(high, range.getValue());
+                    ranges.remove(range.getKey());
+                    range = ranges.higherEntry(range.getKey());
+                }
+                ranges.put(low, high);
+                return received;
+            }
+        }
+    }
+}
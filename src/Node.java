@@ -1,16 +1,21 @@
 
 import java.io.IOException;
 import java.io.Serializable;
-import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 /**
@@ -20,308 +25,412 @@ import java.util.stream.Stream;
  */
 public class Node implements Runnable {
     private final int address;
-    private final Map<Integer, Neighbor> neighbors;
-    private final Map<Integer, NodeInfo> nodes, _nodes = new HashMap<>();
+    final Map<Integer, Neighbor> neighbors;
+    final RoutingTable nodes;
+    private volatile ForwardingTable forwardingTable; // Published routes
+    private long version = 0; // Of the last published routes
+    private final RoutingEngine engine;
+    private static final int DIRECT = RoutingTable.DIRECT;
     
-    /* Since 'nodes' is private, final and unexposed, it is used as the lock.
-     * If it does not satisfy the aforementioned requirements in future, an
-     * instance of the Object class satisfying the same req's should be used.
+    /* Every event of a node, i.e. a received message, a timeout or a command,
+     * is put into its mailbox. The mailbox is drained in order by one of the
+     * shared workers at a time, so the state of the node needs no lock.
      */
+    private static final ExecutorService workers = Executors.newFixedThreadPool(
+        Runtime.getRuntime().availableProcessors(), runnable -> {
+            Thread thread = new Thread(runnable, "Worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+    private static final int BATCH_SIZE = 64; // Events per turn of a worker
+    private final Queue<Runnable> mailbox = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
     
-    private final SerializedDatagram datagram;
-    private final Timer timer;
-    private static final int PING_PERIOD = 5_000,
-                             TIMEOUT_PERIOD = 1_000,
-                             LINK_LIFE = 15_000;
+    // The timeouts of all nodes are kept by a single wheel ticking every 10 ms
+    private static final TimingWheel timer = new TimingWheel("Timer", 10, 512);
+    
+    private final Transport transport;
+    private static final LongAdder sentEchoRequests = new LongAdder(),
+                                   busyTime = new LongAdder(); // In ns
+    static final int MAX_HOPS = 64; // Of a data packet
+    private static final double RTT_ALPHA = 1 / 8.0,
+                                RTT_BETA = 1 / 4.0,
+                                HYSTERESIS = 0.2;
     
     private volatile boolean shouldTerminate = false;
     
-    public Node(int address, List<Neighbor> neighbors) throws SocketException {
-        timer = new Timer(String.format("%s (ping)", id(address)));
-        datagram = new SerializedDatagram(address, 1024);
+    public Node(int address, List<Neighbor> neighbors, Transport transport) {
+        this.transport = transport;
         
         this.address = address;
         this.neighbors = neighbors.stream()
             .collect(Collectors.toMap(n -> n.address, Function.identity()));
-        nodes = neighbors.stream().map(NodeInfo::new)
-            .collect(Collectors.toMap(n -> n.address, Function.identity()));
-        logDistanceVector("init", null);
+        nodes = new RoutingTable(2 * neighbors.size());
+        neighbors.forEach(n -> nodes.put(n.address, n.distance, DIRECT));
+        logRoutes("init", false);
+        forwardingTable = ForwardingTable.compile(nodes, ++version);
         
-        neighborDistances = neighbors.stream()
-            .collect(Collectors.toMap(n -> n.address, n -> n.distance));
+        links = new RoutingTable(2 * neighbors.size());
+        neighbors.forEach(n -> links.put(n.address, n.distance, DIRECT));
+        engine = Settings.linkState
+            ? new LinkStateEngine(this) : new DistanceVectorEngine(this);
     }
     
     /* Test Methods */
     public int getAddress() {
         return address;
     }
-    public void broadcastDistanceVector() {
-        synchronized (nodes) {
-            neighbors().forEach(this::sendDistanceVector);
-        }
+    public void advertise() {
+        submit(engine::start);
+    }
+    RoutingEngine getEngine() {
+        return engine;
     }
-    private final Map<Integer, Double> neighborDistances;
+    private final RoutingTable links; // Distances of the links to neighbors
+    private int relinks = 0; // Link changes to be noticed by the next echoes
     public void setNeighborDistance(int address, double distance) {
-        synchronized (nodes) {
-            neighborDistances.put(address, distance);
-            neighbors.putIfAbsent(address, new Neighbor(address, Double.NaN));
-        }
+        submit(() -> {
+            links.put(address, distance, DIRECT);
+            Neighbor neighbor = neighbors.computeIfAbsent(address,
+                key -> new Neighbor(key, Double.NaN));
+            /* A link restored within its life is given a new one, as the
+             * neighbor is only probed from the next round of echoes on
+             */
+            if (Double.isFinite(distance) && neighbor.expiration != null) {
+                neighbor.expiration.cancel();
+                neighbor.expiration = schedule(() -> expire(neighbor),
+                    Settings.linkLife);
+            }
+            relinks++;
+            Convergence.add(1);
+        });
     }
-    private double getDistance(Neighbor neighbor) {
-        return neighborDistances.get(neighbor.address);
+    double getDistance(Neighbor neighbor) {
+        int link = links.find(neighbor.address);
+        double distance = link < 0
+            ? Double.POSITIVE_INFINITY : links.distance(link);
+        return Settings.measured && Double.isFinite(distance)
+            && !Double.isNaN(neighbor.metric) ? neighbor.metric : distance;
     }
 
     public void run() {
-        timer.schedule(ping, TIMEOUT_PERIOD, PING_PERIOD - TIMEOUT_PERIOD);
+        schedule(this::ping, Settings.echoTimeout);
         
         while (!shouldTerminate) {
             Message message;
             try {
-                message = (Message) datagram.receive();
-            } catch (ClassNotFoundException | IOException ex) {
+                message = (Message) transport.receive();
+            } catch (IOException ex) {
                 if (shouldTerminate) logTermination();
                 else System.err.println(ex.getMessage());
-                if (ex instanceof IOException) continue;
-                else break;
-            }
-            
-            if (message instanceof DistanceVector) {
-                DistanceVector vector = (DistanceVector) message;
-//                log(vector.source, address, "", vector.nodes);
-                receivedDistanceVector(vector);
+                continue;
             }
-            else if (message instanceof EchoRequest) {
-                EchoRequest request = (EchoRequest) message;
+            dispatch(message);
+        }
+    }
+    private void dispatch(Message message) {
+        if (message instanceof DataPacket)
+            forward((DataPacket) message);
+        else submit(() -> receive(message));
+        if (!(message instanceof DataPacket || message instanceof Echo))
+            Convergence.arrived(address);
+    }
+    
+    private void receive(Message message) {
+        if (message instanceof EchoRequest) {
+            EchoRequest request = (EchoRequest) message;
 //                log(request.source, address, "?");
-                receivedEchoRequest(request);
-            }
-            else if (message instanceof EchoReply) {
-                EchoReply reply = (EchoReply) message;
+            receivedEchoRequest(request);
+        }
+        else if (message instanceof EchoReply) {
+            EchoReply reply = (EchoReply) message;
 //                log(address, reply.source, "");
-                receivedEchoReply(reply);
-            }
+            receivedEchoReply(reply);
+        }
+        else if (message instanceof Goodbye) {
+            receivedGoodbye((Goodbye) message);
+        }
+        else if (engine.receive(message)) {
+            Neighbor sender = neighbors.get(message.source);
+            if (sender != null)
+                heard(sender);
         }
     }
     
+    /* In a simulation, the node has no thread, but is handed its messages */
     public void start() {
-        new Thread(this, toString()).start();
+        Simulator simulator = Simulator.get();
+        if (simulator == null) {
+            Threads.start(toString(), this);
+            return;
+        }
+        simulator.listen(address, message -> dispatch((Message) message));
+        schedule(this::ping, Settings.echoTimeout);
+    }
+    /**
+     * Tells the responsive neighbors that the node leaves, so that they do not
+     * have to wait for it to time out, and then terminates it.
+     */
+    public void leave() {
+        submit(() -> {
+            broadcast(new Goodbye(address));
+            terminate();
+        });
     }
     public void terminate() {
         shouldTerminate = true;
-        timer.cancel();
-        datagram.close();
+        transport.close();
+        Convergence.left(address);
+        Convergence.done(relinks);
+        relinks = 0;
+        engine.stop();
+        if (Simulator.isEnabled())
+            logTermination();
     }
     
-    private void receivedEchoRequest(EchoRequest request) {
-        synchronized (nodes) {
-            Neighbor sender = getOrPut(neighbors, request.source,
-                new Neighbor(request.source, Double.NaN));
-            sender.lastEcho = System.currentTimeMillis();
-            unicast(createEchoReply(), sender);
+    /* Every event is counted as work until it is run or discarded */
+    void submit(Runnable event) {
+        Convergence.add(1);
+        Simulator simulator = Simulator.get();
+        if (simulator != null) {
+            simulator.schedule(() -> {
+                if (!shouldTerminate)
+                    execute(event);
+                else Convergence.done(1);
+            }, 0);
+            return;
+        }
+        mailbox.add(event);
+        if (scheduled.compareAndSet(false, true))
+            workers.execute(this::drain);
+    }
+    private void drain() {
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            Runnable event = mailbox.poll();
+            if (event == null)
+                break;
+            if (shouldTerminate)
+                Convergence.done(1);
+            else execute(event);
         }
+        scheduled.set(false);
+        // An event may have arrived after the last poll
+        if (!mailbox.isEmpty() && scheduled.compareAndSet(false, true))
+            workers.execute(this::drain);
     }
-    
-    private void receivedEchoReply(EchoReply reply) {
-        synchronized (nodes) {
-            Neighbor sender = getOrPut(neighbors, reply.source,
-                new Neighbor(reply.source, Double.NaN));
-            sender.lastEcho = System.currentTimeMillis();
+    private void execute(Runnable event) {
+        long start = System.nanoTime();
+        try {
+            event.run();
+        } catch (RuntimeException ex) {
+            ex.printStackTrace();
         }
+        busyTime.add(System.nanoTime() - start);
+        Convergence.done(1);
+    }
+    Scheduler.Timeout schedule(Runnable event, long delay) {
+        Scheduler scheduler = Simulator.isEnabled() ? Simulator.get() : timer;
+        return scheduler.schedule(() -> submit(event), delay);
     }
     
-    private void receivedDistanceVector(DistanceVector vector) {
-        synchronized (nodes) {
-            backupNodes();
-            
-            /* When a disconnected neighbor node becomes reachable
-             * again or a new node joins the network, it may send a
-             * distance vector before an echo request/reply.
-             */
-            double reportedDistance = Stream.of(vector.nodes)
-                .filter(n -> n.address == address).findFirst().get().distance;
-            
-            Neighbor sender = neighbors.getOrDefault(vector.source,
-                new Neighbor(vector.source, reportedDistance));
-            if (!putIfAbsent(neighbors, vector.source, sender)
-                    && !Double.isFinite(sender.distance))
-                sender.distance = reportedDistance;
-            
-            NodeInfo _sender = nodes.getOrDefault(vector.source,
-                new NodeInfo(vector.source, reportedDistance));
-            putIfAbsent(nodes, vector.source, _sender);
-
-            updates(vector).forEach(update -> {
-                NodeInfo _node = _nodes.get(update.address);
-                NodeInfo node = nodes.get(update.address);
-                double newDistance = _sender.distance + update.distance;
-                
-                if (node == null) {
-                    if (Double.isFinite(newDistance)) {
-                        nodes.put(update.address,
-                            new NodeInfo(update.address, newDistance, sender));
-                    }
-                } else if (newDistance < node.distance
-                        || (newDistance != node.distance
-                        && _node.via == sender && node.via == sender)) {
-                    node.via = sender;
-                    updateByCheckingDescendants(_node, node, newDistance);
-                }
-            });
-            
-            neighbors().forEach(neighbor -> {
-                NodeInfo node = nodes.get(neighbor.address);
-                if (node.via != null && neighbor.distance <= node.distance) {
-                    node.distance = neighbor.distance;
-                    node.via = null;
-                }
-            });
-            
-            List<NodeInfo> updated = diffNodes();
-            List<NodeInfoBase> inform = updates(vector).filter(update -> {
-                NodeInfo node = nodes.get(update.address);
-                return reportedDistance + node.distance < update.distance;
-            }).collect(Collectors.toList());
-
-            if (!updated.isEmpty() | !inform.isEmpty()) {
-                logDistanceVector(vector, updated, inform);
-                broadcastDistanceVector(sender,
-                    !updated.isEmpty(), !inform.isEmpty());
-                filterNodes();
-            }
-        }
+    private void receivedEchoRequest(EchoRequest request) {
+        Neighbor sender = getOrPut(neighbors, request.source,
+            new Neighbor(request.source, Double.NaN));
+        heard(sender);
+        unicast(createEchoReply(request), sender);
     }
-    private void broadcastDistanceVector(
-            Neighbor sender, boolean updated, boolean inform) {
-        neighbors()
-            .filter(n -> (updated && n != sender) || (inform && n == sender))
-            .forEach(this::sendDistanceVector);
+    
+    private void receivedEchoReply(EchoReply reply) {
+        Neighbor sender = getOrPut(neighbors, reply.source,
+            new Neighbor(reply.source, Double.NaN));
+        heard(sender);
+        sender.lastEcho = sender.lastHeard;
+        if (Settings.measured)
+            measure(sender, (Simulator.nanoTime() - reply.timestamp) / 1e6);
     }
     
-    private final TimerTask ping = new TimerTask() {
-        public void run() {
-            long echoRequest;
-            synchronized (nodes) {
-                echoRequest = System.currentTimeMillis();
-                multicast(createEchoRequest(), neighbors.values().stream()
-                    .filter(neighbor -> Double.isFinite(getDistance(neighbor))));
-            }
-            sleep(TIMEOUT_PERIOD);
-
-            synchronized (nodes) {
-                // Detect unreachable neighbors
-                backupNodes();
-                for (Iterator<Neighbor> iterator = neighbors.values().iterator();
-                        iterator.hasNext();) {
-                    Neighbor neighbor = iterator.next();
-                    // TODO Round-trip time should be used for distance.
-                    neighbor.distance = neighbor.lastEcho < echoRequest
-                        ? Double.POSITIVE_INFINITY : getDistance(neighbor);
-                    
-                    NodeInfo node = nodes.get(neighbor.address);
-                    if (node == null) {
-                        if (Double.isFinite(neighbor.distance)) {
-                            nodes.put(neighbor.address, new NodeInfo(neighbor));
-                        }
-                    } else if ((node.via == null
-                            && neighbor.distance != node.distance)
-                            || (node.via != null
-                            && neighbor.distance <= node.distance)) {
-                        updateByCheckingDescendants2(node, neighbor.distance);
-                        node.via = null;
-                    }
-                    if (!Double.isFinite(neighbor.distance)
-                            && echoRequest - neighbor.lastEcho > LINK_LIFE) {
-                        logLinkExpiration(neighbor);
-                        iterator.remove();
-                    }
-                }
-                
-                /* Detecting unreachable neighbors and broadcasting the
-                 * distance vector should be atomic in order to avoid the
-                 * count-to-infinity problem. No packet loss is assumed.
-                 */
-                List<NodeInfo> updated = diffNodes();
-                if (!updated.isEmpty()) {
-                    logDistanceVector("echo", updated);
-                    neighbors().forEach(Node.this::sendDistanceVector);
-                    filterNodes();
-                }
-            }
+    /* The round-trip time is smoothed as in TCP (RFC 6298). The metric
+     * follows the smoothed value only once it has moved away by a fraction
+     * of the metric, and by more than the usual variation, so that jitter
+     * does not trigger distance vectors all over the network.
+     */
+    private void measure(Neighbor neighbor, double rtt) {
+        if (Double.isNaN(neighbor.srtt)) {
+            neighbor.srtt = neighbor.metric = rtt;
+            neighbor.rttvar = rtt / 2;
+            return;
         }
-    };
+        neighbor.rttvar += RTT_BETA * (Math.abs(neighbor.srtt - rtt)
+            - neighbor.rttvar);
+        neighbor.srtt += RTT_ALPHA * (rtt - neighbor.srtt);
+        double deviation = Math.abs(neighbor.srtt - neighbor.metric);
+        if (deviation > HYSTERESIS * neighbor.metric
+                && deviation > neighbor.rttvar)
+            neighbor.metric = neighbor.srtt;
+    }
     
-    private Stream<Neighbor> neighbors() { // Responsive neighbors
-        return neighbors.values().stream()
-            .filter(neighbor -> Double.isFinite(neighbor.distance));
+    /* Any message of a neighbor proves that the link is up */
+    private void heard(Neighbor sender) {
+        sender.lastHeard = Simulator.currentTimeMillis();
+        if (sender.expiration != null) {
+            sender.expiration.cancel();
+            sender.expiration = null;
+        }
     }
-    private Stream<NodeInfoBase> updates(DistanceVector vector) {
-        return Stream.of(vector.nodes).filter(node -> node.address != address);
+    
+    /* A neighbor that leaves is forgotten at once, and the routes through it
+     * are withdrawn as if it had stopped replying to the echo requests.
+     */
+    private void receivedGoodbye(Goodbye goodbye) {
+        Neighbor sender = neighbors.remove(goodbye.source);
+        links.remove(goodbye.source);
+        if (sender == null)
+            return;
+        if (sender.expiration != null)
+            sender.expiration.cancel();
+        logLinkExpiration(sender);
+        sender.distance = Double.POSITIVE_INFINITY;
+        engine.linksChanged(Collections.singletonList(sender), "goodbye");
     }
     
-    private void updateByCheckingDescendants(
-            NodeInfo _node, NodeInfo node, double distance) {
-        // Neighbor used to be directly accessed
-        if (_node != null && _node.via == null) {
-            Neighbor neighbor = neighbors.get(node.address);
-            double delta = distance - _node.distance;
-            _nodes.values().stream().filter(n -> n.via == neighbor)
-                .forEach(_n -> {
-                    double newDistance = _n.distance + delta;
-                    NodeInfo n = nodes.get(_n.address);
-                    if (newDistance < n.distance) {
-                        n.via = node.via != null ? node.via : neighbor;
-                        n.distance = newDistance;
-                    }
-                });
+    /* Only the neighbors that have not been heard from within their probe
+     * interval are sent an echo request, and they are considered unreachable
+     * unless they are heard from before the timeout. The interval of a
+     * neighbor doubles with each round it is reachable in, up to the maximum,
+     * and falls back to the minimum once it is not.
+     *
+     * The round-trip time is only measured by the echoes, so the metric is
+     * kept up to date by probing the neighbors that have not replied to an
+     * echo request within their interval.
+     */
+    private void ping() {
+        long echoRequest = Simulator.currentTimeMillis();
+        EchoRequest request = createEchoRequest();
+        int[] destination = neighbors.values().stream()
+            .filter(neighbor -> Double.isFinite(getDistance(neighbor))
+                && echoRequest - (Settings.measured
+                    ? neighbor.lastEcho : neighbor.lastHeard)
+                    >= neighbor.interval)
+            .mapToInt(neighbor -> neighbor.address).toArray();
+        if (destination.length > 0) {
+            transport.send(request, destination);
+            sentEchoRequests.add(destination.length);
         }
-        node.distance = distance;
-    }
-    private void updateByCheckingDescendants2(NodeInfo node, double distance) {
-        if (node.via == null) { // Neighbor used to be directly accessed
-            Neighbor neighbor = neighbors.get(node.address);
-            double delta = distance - node.distance;
-            nodes.values().stream().filter(n -> n.via == neighbor)
-                .forEach(n -> n.distance += delta);
+        schedule(() -> detectUnreachableNeighbors(echoRequest),
+            Settings.echoTimeout);
+        schedule(this::ping, Settings.pingPeriod - Settings.echoTimeout);
+    }
+    private void detectUnreachableNeighbors(long echoRequest) {
+        for (Neighbor neighbor : neighbors.values()) {
+            boolean reachable =
+                echoRequest - neighbor.lastHeard < neighbor.interval;
+            neighbor.interval = reachable
+                ? Math.min(2 * neighbor.interval, Settings.maxPingPeriod)
+                : Settings.pingPeriod;
+            neighbor.distance = reachable
+                ? getDistance(neighbor) : Double.POSITIVE_INFINITY;
+            if (!Double.isFinite(neighbor.distance)
+                    && neighbor.expiration == null)
+                neighbor.expiration = schedule(() -> expire(neighbor),
+                    neighbor.lastHeard + Settings.linkLife - echoRequest);
+        }
+        engine.linksChanged(neighbors.values(), "echo");
+        Convergence.done(relinks);
+        relinks = 0;
+    }
+    private void expire(Neighbor neighbor) {
+        neighbor.expiration = null;
+        // An echo may have arrived after the timeout has expired
+        if (neighbors.get(neighbor.address) == neighbor
+                && !Double.isFinite(neighbor.distance)
+                && Simulator.currentTimeMillis() - neighbor.lastHeard
+                    >= Settings.linkLife) {
+            logLinkExpiration(neighbor);
+            neighbors.remove(neighbor.address);
         }
-        node.distance = distance;
     }
     
-    private void backupNodes() {
-        _nodes.clear();
-        nodes.values().stream().map(NodeInfo::new)
-            .forEach(node -> _nodes.put(node.address, node));
-    }
-    private List<NodeInfo> diffNodes() {
-        return nodes.values().stream().filter(node -> {
-            NodeInfo _node = _nodes.get(node.address);
-            return _node == null || _node.distance != node.distance
-                || _node.via != node.via;
-        }).collect(Collectors.toList());
+    Stream<Neighbor> neighbors() { // Responsive neighbors
+        return neighbors.values().stream()
+            .filter(neighbor -> Double.isFinite(neighbor.distance));
     }
-    private void filterNodes() {
-        nodes.entrySet().removeIf(e -> !Double.isFinite(e.getValue().distance));
+    
+    /* The snapshot is compiled from the routes changed in the transaction of
+     * the engine, which publishes it in the same transaction.
+     */
+    void filterNodes() {
+        nodes.removeUnreachable();
+        forwardingTable = ForwardingTable.compile(nodes, forwardingTable,
+            ++version);
+    }
+    /**
+     * @return The latest routes of the node, which can be read from any
+     *         thread without waiting for the node.
+     */
+    public ForwardingTable getRoutes() {
+        return forwardingTable;
     }
     
-    private void unicast(Message message, Neighbor destination) {
-        datagram.send(message, destination.address);
+    /**
+     * Injects a data packet to the specified destination.
+     *
+     * @return false if the node has been terminated.
+     */
+    public boolean send(int destination) {
+        if (shouldTerminate)
+            return false;
+        forward(new DataPacket(address, address, destination, 0));
+        return true;
+    }
+    /* Data packets are forwarded on the receiving thread by the latest
+     * forwarding table, without going through the mailbox.
+     */
+    private void forward(DataPacket packet) {
+        if (shouldTerminate) // Its transport may be closed
+            return;
+        if (packet.destination == address) {
+            Traffic.delivered(packet.hops);
+            return;
+        }
+        int hop = forwardingTable.nextHop(packet.destination, packet.origin);
+        if (hop == ForwardingTable.NONE)
+            Traffic.unreachable();
+        else if (packet.hops == MAX_HOPS)
+            Traffic.expired();
+        else transport.send(new DataPacket(address, packet.origin,
+            packet.destination, packet.hops + 1), hop);
     }
-    private void multicast(Message message, Stream<Neighbor> destination) {
-        datagram.send(message, destination.mapToInt(n -> n.address).toArray());
+    
+    /* The routing messages are counted as in flight until they arrive */
+    void unicast(Message message, Neighbor destination) {
+        if (!(message instanceof Echo))
+            Convergence.sent(destination.address);
+        transport.send(message, destination.address);
+    }
+    void multicast(Message message, Stream<Neighbor> destination) {
+        int[] addresses = destination.mapToInt(n -> n.address).toArray();
+        if (!(message instanceof Echo))
+            Convergence.sent(addresses);
+        transport.send(message, addresses);
     }
     private void broadcast(Message message) {
         multicast(message, neighbors());
     }
     
-    private void sendDistanceVector(Neighbor destination) {
-        unicast(new DistanceVector(address, nodes.values().stream()
-            .filter(node -> node.via != destination)
-            .map(NodeInfoBase::new).toArray(NodeInfoBase[]::new)), destination);
+    public static long getSentEchoRequests() {
+        return sentEchoRequests.sum();
+    }
+    /**
+     * @return The time spent in the events of all nodes in nanoseconds.
+     */
+    public static long getBusyTime() {
+        return busyTime.sum();
     }
     private EchoRequest createEchoRequest() {
-        return new EchoRequest(address);
+        return new EchoRequest(address, Simulator.nanoTime());
     }
-    private EchoReply createEchoReply() {
-        return new EchoReply(address);
+    private EchoReply createEchoReply(EchoRequest request) {
+        return new EchoReply(address, request.timestamp);
     }
     
     private static synchronized void log(int source, int destination,
@@ -331,20 +440,23 @@ public class Node implements Runnable {
             System.out.format(": %s", join("; ", vector));
         System.out.println();
     }
-    private void logDistanceVector(String cause, List<NodeInfo> updated) {
-        Program.log("%s: %s << %s", this, updated == null
-            ? join("; ", nodes.values()) : join("; ", nodes.values().stream()
-            .map(n -> String.format(updated.contains(n) ? "*%s" : "%s", n))),
-            cause);
-    }
-    private void logDistanceVector(DistanceVector vector,
-            List<NodeInfo> updated, List<NodeInfoBase> inform) {
-        Program.log("%s: %s %c%c %s: %s", this,
-            join("; ", nodes.values().stream()
-                .map(n -> String.format(updated.contains(n) ? "*%s" : "%s", n))),
-            !updated.isEmpty() ? '<' : '>', !inform.isEmpty() ? '>' : '<',
-            id(vector.source), join("; ", Stream.of(vector.nodes)
-                .map(n -> String.format(inform.contains(n) ? "*%s" : "%s", n))));
+    void logRoutes(String cause, boolean updated) {
+        if (!Settings.verbose) return;
+        Program.log("%s: %s << %s", this, routes(updated), cause);
+    }
+    /* The routes, the changed ones of which are marked if specified */
+    String routes(boolean updated) {
+        List<String> routes = new ArrayList<>(nodes.size());
+        for (int node = nodes.next(0); node >= 0; node = nodes.next(node + 1)) {
+            int address = nodes.address(node), via = nodes.hop(node);
+            String route = via == DIRECT
+                ? String.format("%s (%s)", id(address),
+                    format(nodes.distance(node)))
+                : String.format("%s > %s (%s)", id(via), id(address),
+                    format(nodes.distance(node)));
+            routes.add(updated && nodes.isChanged(node) ? "*" + route : route);
+        }
+        return join("; ", routes);
     }
     private void logLinkExpiration(Neighbor neighbor) {
         Program.log("%s -/-> %s", this, id(neighbor.address));
@@ -356,11 +468,11 @@ public class Node implements Runnable {
     public String toString() {
         return id(address);
     }
-    private static String id(int address) {
+    static String id(int address) {
         return Program.getIdentifier(address);
     }
     
-    private static abstract class Message implements Serializable {
+    static abstract class Message implements Serializable {
         final int source;
         
         public Message(int source) {
@@ -369,30 +481,150 @@ public class Node implements Runnable {
     }
     
     public static class DistanceVector extends Message {
-        final NodeInfoBase[] nodes;
+        final int sequence; // Of the vector among the ones to the receiver
+        final boolean incremental;
+        final int[] addresses; // In ascending order
+        final double[] distances;
+        final int[] sequences; // Of the routes, issued by their destinations
         
-        public DistanceVector(int source, NodeInfoBase[] nodes) {
+        public DistanceVector(int source, int sequence, boolean incremental,
+                int[] addresses, double[] distances, int[] sequences) {
             super(source);
-            this.nodes = nodes;
+            this.sequence = sequence;
+            this.incremental = incremental;
+            this.addresses = addresses;
+            this.distances = distances;
+            this.sequences = sequences;
+        }
+        
+        /**
+         * @return The index of the entry of the address, or a negative number.
+         */
+        public int indexOf(int address) {
+            return Arrays.binarySearch(addresses, address);
+        }
+        /**
+         * @return This vector updated by the next one from the same source.
+         */
+        DistanceVector merge(DistanceVector next) {
+            if (!next.incremental)
+                return next;
+            int length = 0;
+            int[] addresses =
+                new int[this.addresses.length + next.addresses.length];
+            double[] distances = new double[addresses.length];
+            int[] sequences = new int[addresses.length];
+            for (int i = 0, j = 0;
+                    i < this.addresses.length || j < next.addresses.length;) {
+                if (j == next.addresses.length || (i < this.addresses.length
+                        && this.addresses[i] < next.addresses[j])) {
+                    addresses[length] = this.addresses[i];
+                    sequences[length] = this.sequences[i];
+                    distances[length++] = this.distances[i++];
+                    continue;
+                }
+                if (i < this.addresses.length
+                        && this.addresses[i] == next.addresses[j])
+                    i++;
+                addresses[length] = next.addresses[j];
+                sequences[length] = next.sequences[j];
+                distances[length++] = next.distances[j++];
+            }
+            return new DistanceVector(source, next.sequence, incremental,
+                Arrays.copyOf(addresses, length),
+                Arrays.copyOf(distances, length),
+                Arrays.copyOf(sequences, length));
+        }
+        String entry(int i) {
+            return String.format("%s (%s)", id(addresses[i]),
+                format(distances[i]));
         }
         
         public String toString() {
-            return String.format("%s: %s", id(source), join("; ", nodes));
+            return String.format("%s: %s", id(source), join("; ",
+                IntStream.range(0, addresses.length).mapToObj(this::entry)));
+        }
+    }
+    
+    /* The links of the origin, which are flooded through the network */
+    static class LinkState extends Message {
+        final int origin, sequence;
+        final int[] addresses; // Of the neighbors in ascending order
+        final double[] distances;
+        
+        public LinkState(int source, int origin, int sequence,
+                int[] addresses, double[] distances) {
+            super(source);
+            this.origin = origin;
+            this.sequence = sequence;
+            this.addresses = addresses;
+            this.distances = distances;
+        }
+        
+        LinkState forwardedBy(int source) {
+            return new LinkState(source, origin, sequence, addresses,
+                distances);
+        }
+    }
+    
+    static abstract class Echo extends Message {
+        final long timestamp; // Of the request by the clock of its source
+        
+        public Echo(int source, long timestamp) {
+            super(source);
+            this.timestamp = timestamp;
+        }
+    }
+    
+    static class EchoRequest extends Echo {
+        public EchoRequest(int source, long timestamp) {
+            super(source, timestamp);
+        }
+    }
+    
+    static class EchoReply extends Echo {
+        public EchoReply(int source, long timestamp) {
+            super(source, timestamp);
+        }
+    }
+    
+    static class DataPacket extends Message {
+        final int origin, destination, hops;
+        
+        public DataPacket(int source, int origin, int destination, int hops) {
+            super(source);
+            this.origin = origin;
+            this.destination = destination;
+            this.hops = hops;
         }
     }
     
-    private static class EchoRequest extends Message {
-        public EchoRequest(int source) {
+    /* Asks for a full distance vector after an incremental one is lost */
+    static class ResyncRequest extends Message {
+        public ResyncRequest(int source) {
             super(source);
         }
     }
     
-    private static class EchoReply extends Message {
-        public EchoReply(int source) {
+    static class Goodbye extends Message {
+        public Goodbye(int source) {
             super(source);
         }
     }
     
+    /* Asks for a new sequence number of the routes to the destination */
+    static class SequenceRequest extends Message {
+        final int destination, sequence, hops;
+        
+        public SequenceRequest(int source, int destination, int sequence,
+                int hops) {
+            super(source);
+            this.destination = destination;
+            this.sequence = sequence;
+            this.hops = hops;
+        }
+    }
+    
     public static class NodeInfoBase implements Serializable {
         int address;
         double distance;
@@ -411,34 +643,27 @@ public class Node implements Runnable {
     }
     
     public static class Neighbor extends NodeInfoBase {
-        long lastEcho = System.currentTimeMillis();
+        long lastHeard = Simulator.currentTimeMillis(), lastEcho = lastHeard;
+        long interval = Settings.pingPeriod; // Between echo requests
+        Scheduler.Timeout expiration; // Of the link while it is unresponsive
+        
+        double linked; // Distance of the link that its routes are based on
+        RoutingTable reported; // Last routes advertised by the neighbor
+        
+        /* Incremental updates */
+        RoutingTable advertised; // Null until a full vector is sent
+        int sequence, received = -1;
+        
+        /* Pacing */
+        long lastSent;
+        boolean deferred;
+        
+        /* Measured round-trip time in milliseconds */
+        double srtt = Double.NaN, rttvar, metric = Double.NaN;
 
         public Neighbor(int address, double distance) {
             super(address, distance);
-        }
-    }
-    
-    public static class NodeInfo extends NodeInfoBase {
-        Neighbor via;
-
-        public NodeInfo(int address, double distance, Neighbor via) {
-            super(address, distance);
-            this.via = via;
-        }
-        public NodeInfo(int address, double distance) {
-            this(address, distance, null);
-        }
-        public NodeInfo(NodeInfo info) {
-            this(info.address, info.distance, info.via);
-        }
-        public NodeInfo(Neighbor info) {
-            this(info.address, info.distance);
-        }
-        
-        public String toString() {
-            return via == null ? super.toString()
-                : String.format("%s > %s (%s)", id(via.address), id(address),
-                    format(distance));
+            linked = distance;
         }
     }
     
@@ -448,14 +673,14 @@ public class Node implements Runnable {
             map.put(key, v = value);
         return v;
     }
-    private static <K,V> boolean putIfAbsent(Map<K, V> map, K key, V value) {
+    static <K,V> boolean putIfAbsent(Map<K, V> map, K key, V value) {
         V v = map.get(key);
         if (v == null)
             map.put(key, value);
         return v == null;
     }
     
-    private static String format(double number) {
+    static String format(double number) {
         return Double.isFinite(number)
             ? (number == (long) number
                 ? String.format("%d", (long) number)
@@ -467,7 +692,7 @@ public class Node implements Runnable {
     private static <T> String join(String delimiter, T... values) {
         return join(delimiter, Stream.of(values));
     }
-    private static <T> String join(String delimiter, Collection<T> collection) {
+    static <T> String join(String delimiter, Collection<T> collection) {
         return join(delimiter, collection.stream());
     }
     private static <T> String join(String delimiter, Stream<T> stream) {
@@ -475,7 +700,14 @@ public class Node implements Runnable {
             .toArray(String[]::new));
     }
     
+    /**
+     * Advances the virtual clock instead in a simulation.
+     */
     public static void sleep(long millis) {
+        if (Simulator.isEnabled()) {
+            Simulator.get().advance(millis);
+            return;
+        }
         try {
             Thread.sleep(millis);
         } catch (InterruptedException ex) {
@@ -0,0 +1,275 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Checks the published routes of the nodes against the shortest paths of the
+ * topology, which are computed by Dijkstra's algorithm from every node in
+ * parallel.
+ *
+ * The graph is kept in compressed rows indexed by the address, and the
+ * shortest paths from a node are compared with its routes as soon as they
+ * are found. Each task reuses its arrays for all of its searches, so the
+ * memory grows with the size of the graph instead of the number of pairs.
+ *
+ * @author Burak Gök
+ */
+final class Oracle {
+    private static final double EPSILON = 1e-9; // Relative error of a sum
+    private static final int MAX_EXAMPLES = 10;
+
+    private final int base, size; // Of the addresses
+    private final int[] offsets, targets;
+    private final double[] weights;
+    private final ForwardingTable[] routes; // Null for a departed node
+
+    /**
+     * @param links The distances of the links keyed by the addresses of their
+     *              ends, as in {@link #key(int, int)}.
+     * @param size The number of the addresses starting from the base.
+     */
+    Oracle(Map<Integer, ForwardingTable> routes, Map<Long, Double> links,
+            int base, int size) {
+        this.base = base;
+        this.size = size;
+        this.routes = new ForwardingTable[size];
+        routes.forEach((address, table) -> this.routes[address - base] = table);
+
+        offsets = new int[size + 1];
+        links.forEach((key, distance) -> {
+            if (Double.isFinite(distance)) {
+                offsets[(int) (key >>> 32) - base + 1]++;
+                offsets[key.intValue() - base + 1]++;
+            }
+        });
+        for (int i = 0; i < size; i++)
+            offsets[i + 1] += offsets[i];
+        targets = new int[offsets[size]];
+        weights = new double[offsets[size]];
+        int[] next = Arrays.copyOf(offsets, size);
+        links.forEach((key, distance) -> {
+            if (!Double.isFinite(distance))
+                return;
+            int u = (int) (key >>> 32) - base, v = key.intValue() - base;
+            targets[next[u]] = v;
+            weights[next[u]++] = distance;
+            targets[next[v]] = u;
+            weights[next[v]++] = distance;
+        });
+    }
+
+    static long key(int address1, int address2) {
+        return (long) Math.min(address1, address2) << 32
+            | Math.max(address1, address2);
+    }
+
+    /**
+     * Logs how many routes are missing, stale, i.e. to an unreachable
+     * destination or shorter than possible, suboptimal, or misrouted, i.e.
+     * through a next hop that is not on a shortest path, and a few of them.
+     *
+     * @return The number of such routes.
+     */
+    long check() {
+        long start = System.nanoTime();
+        Result result = ForkJoinPool.commonPool().invoke(new Search(0, size));
+        Program.log("Oracle: %d routes checked in %d ms, %d missing, "
+            + "%d stale, %d suboptimal, %d misrouted", result.checked,
+            (System.nanoTime() - start) / 1_000_000, result.missing,
+            result.stale, result.suboptimal, result.misrouted);
+        result.examples.forEach(example -> Program.log("  %s", example));
+        return result.missing + result.stale + result.suboptimal
+            + result.misrouted;
+    }
+
+    private static class Result {
+        long checked, missing, stale, suboptimal, misrouted;
+        final List<String> examples = new ArrayList<>();
+
+        Result merge(Result other) {
+            checked += other.checked;
+            missing += other.missing;
+            stale += other.stale;
+            suboptimal += other.suboptimal;
+            misrouted += other.misrouted;
+            for (String example : other.examples)
+                if (examples.size() < MAX_EXAMPLES)
+                    examples.add(example);
+            return this;
+        }
+    }
+
+    /* Searches from the nodes in a range of indices, which is split in halves
+     * until it is small enough to keep all workers busy.
+     */
+    private class Search extends RecursiveTask<Result> {
+        private static final long serialVersionUID = 1L;
+
+        private final int from, to;
+
+        Search(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        protected Result compute() {
+            int threshold = Math.max(1,
+                size / (4 * ForkJoinPool.getCommonPoolParallelism()));
+            if (to - from > threshold) {
+                int middle = (from + to) >>> 1;
+                Search right = new Search(middle, to);
+                right.fork();
+                Result left = new Search(from, middle).compute();
+                return left.merge(right.join());
+            }
+            Result result = new Result();
+            double[] distances = new double[size];
+            int[] heap = new int[size], positions = new int[size];
+            for (int source = from; source < to; source++) {
+                search(source, distances, heap, positions);
+                if (routes[source] != null)
+                    compare(source, distances, result);
+                follow(source, distances, result);
+            }
+            return result;
+        }
+    }
+
+    /* Dijkstra's algorithm on a binary heap of the indices, in which the
+     * position of each index is kept to decrease its distance in place.
+     */
+    private void search(int source, double[] distances, int[] heap,
+            int[] positions) {
+        Arrays.fill(distances, Double.POSITIVE_INFINITY);
+        Arrays.fill(positions, -1);
+        distances[source] = 0;
+        heap[0] = source;
+        positions[source] = 0;
+        for (int length = 1; length > 0;) {
+            int u = heap[0];
+            if (--length > 0) {
+                heap[0] = heap[length];
+                siftDown(heap, length, positions, distances);
+            }
+            positions[u] = -2; // Settled
+            for (int e = offsets[u]; e < offsets[u + 1]; e++) {
+                int v = targets[e];
+                double distance = distances[u] + weights[e];
+                if (positions[v] == -2 || distance >= distances[v])
+                    continue;
+                distances[v] = distance;
+                if (positions[v] < 0) {
+                    heap[length] = v;
+                    positions[v] = length++;
+                }
+                siftUp(heap, positions[v], positions, distances);
+            }
+        }
+    }
+    private static void siftUp(int[] heap, int i, int[] positions,
+            double[] distances) {
+        int u = heap[i];
+        for (int parent; i > 0
+                && distances[heap[parent = (i - 1) >>> 1]] > distances[u];
+                i = parent) {
+            heap[i] = heap[parent];
+            positions[heap[i]] = i;
+        }
+        heap[i] = u;
+        positions[u] = i;
+    }
+    private static void siftDown(int[] heap, int length, int[] positions,
+            double[] distances) {
+        int u = heap[0], i = 0;
+        for (int child; (child = 2 * i + 1) < length; i = child) {
+            if (child + 1 < length
+                    && distances[heap[child + 1]] < distances[heap[child]])
+                child++;
+            if (distances[heap[child]] >= distances[u])
+                break;
+            heap[i] = heap[child];
+            positions[heap[i]] = i;
+        }
+        heap[i] = u;
+        positions[u] = i;
+    }
+
+    private void compare(int source, double[] distances, Result result) {
+        ForwardingTable table = routes[source];
+        for (int destination = 0; destination < size; destination++) {
+            if (destination == source)
+                continue;
+            double shortest = distances[destination];
+            double distance = table.distance(base + destination);
+            double error = EPSILON * Math.max(1, Math.abs(shortest));
+            String problem;
+            if (!Double.isFinite(distance) && !Double.isFinite(shortest))
+                continue;
+            result.checked++;
+            if (!Double.isFinite(distance)) {
+                result.missing++;
+                problem = "missing";
+            }
+            else if (!Double.isFinite(shortest)
+                    || distance < shortest - error) {
+                result.stale++;
+                problem = "stale";
+            }
+            else if (distance > shortest + error) {
+                result.suboptimal++;
+                problem = "suboptimal";
+            }
+            else continue;
+            if (result.examples.size() < MAX_EXAMPLES)
+                result.examples.add(String.format("%s > %s: %s instead of %s"
+                    + " (%s)", Node.id(base + source),
+                    Node.id(base + destination), Node.format(distance),
+                    Node.format(shortest), problem));
+        }
+    }
+
+    /* The distances from the target are also those to it, so the next hops of
+     * the routes to the target are checked by them. Only the routes of the
+     * right distance are followed, since the rest are already counted.
+     */
+    private void follow(int target, double[] distances, Result result) {
+        for (int node = 0; node < size; node++) {
+            ForwardingTable table = routes[node];
+            if (node == target || table == null)
+                continue;
+            double shortest = distances[node];
+            double error = EPSILON * Math.max(1, Math.abs(shortest));
+            if (!Double.isFinite(shortest) || Math.abs(
+                    table.distance(base + target) - shortest) > error)
+                continue;
+            int[] hops = table.nextHops(base + target);
+            String wrong = hops.length == 0 ? "none" : null;
+            for (int hop : hops)
+                if (!isShortest(node, hop - base, shortest, distances,
+                        error)) {
+                    wrong = Node.id(hop);
+                    break;
+                }
+            if (wrong == null)
+                continue;
+            result.misrouted++;
+            if (result.examples.size() < MAX_EXAMPLES)
+                result.examples.add(String.format("%s > %s: via %s"
+                    + " (misrouted)", Node.id(base + node),
+                    Node.id(base + target), wrong));
+        }
+    }
+    private boolean isShortest(int node, int hop, double shortest,
+            double[] distances, double error) {
+        if (hop < 0 || hop >= size)
+            return false;
+        for (int e = offsets[node]; e < offsets[node + 1]; e++)
+            if (targets[e] == hop && Math.abs(weights[e] + distances[hop]
+                    - shortest) <= error)
+                return true;
+        return false;
+    }
+}
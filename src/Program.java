@@ -2,7 +2,6 @@
 import java.io.IOException;
 import java.net.SocketException;
 import java.nio.file.Files;
-import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.text.ParseException;
@@ -10,8 +9,11 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Function;
 import java.util.regex.Matcher;
@@ -21,6 +23,7 @@ import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import java.awt.Color;
+import java.awt.GraphicsEnvironment;
 import javax.swing.text.Style;
 import javax.swing.text.StyleConstants;
 
@@ -30,47 +33,148 @@ import javax.swing.text.StyleConstants;
  *         Enes Varol
  */
 public class Program {
-    private static final int BASE_PORT = 1000;
+    private static final int BASE_PORT = 1000, PACKET_LENGTH = 1024,
+                             INBOX_CAPACITY = 1024;
+    private static final double CONVERGE_TIMEOUT = 60; // In seconds
     private static final Map<Integer, String> ids = new HashMap<>();
     private static final Map<String, Node> nodes = new HashMap<>();
+    // Distances of the links keyed by the addresses of their ends
+    private static final Map<Long, Double> topology = new HashMap<>();
     private static final ReentrantLock global = new ReentrantLock(true);
+    private static String transport = "socket";
+    private static SharedChannel channel;
+    private static Loopback loopback;
     
     /**
      * @param args
      * src\Links
      * -N:20 -Conn:3,5
+     * -Transport:socket|channel|loopback
+     * -Routing:vector|state
+     * -Updates:full|delta
+     * -Vectors:each|batch
+     * -Metric:static|rtt
+     * -Ping:5000,5000 -Timeout:1000 -LinkLife:15000
+     * -Pacing:0
+     * -Traffic:0
+     * -Threads:platform|virtual
+     * -Simulate:<seed>,1
+     * -Log:tables|events
      */
     public static void main(String[] args) throws IOException, ParseException {
-        Program program = new Program();
-        program.initLayout();
-        
-        try {
-            Path path = Paths.get(args[0]);
-            List<String> lines = Files.readAllLines(path);
-            program.initNodes(lines);
-        }
-        catch (InvalidPathException e) {
-            int N = 10, L = 3, U = 5; // Defaults
+        Path path = null;
+        int N = 10, L = 3, U = 5, traffic = 0; // Defaults
 
-            for (String arg : args) {
-                int colon = arg.indexOf(':');
-                String name = arg.substring(1, colon);
-                String value = arg.substring(colon + 1);
-
-                switch (name) {
-                    case "N":
-                        N = Integer.parseInt(value);
-                        break;
-                    case "Conn":
-                        String[] bounds = value.split(",");
-                        L = Integer.parseInt(bounds[0]);
-                        U = Integer.parseInt(bounds[1]);
-                        break;
-                }
+        for (String arg : args) {
+            if (!arg.startsWith("-")) {
+                path = Paths.get(arg);
+                continue;
             }
+            int colon = arg.indexOf(':');
+            if (colon < 0)
+                raiseException("Invalid argument: %s", arg);
+            String name = arg.substring(1, colon);
+            String value = arg.substring(colon + 1);
 
-            program.initNodes(N, L, U);
+            switch (name) {
+                case "N":
+                    N = Integer.parseInt(value);
+                    break;
+                case "Conn":
+                    String[] bounds = value.split(",");
+                    L = Integer.parseInt(bounds[0]);
+                    U = Integer.parseInt(bounds[1]);
+                    break;
+                case "Transport":
+                    if (!value.matches("socket|channel|loopback"))
+                        raiseException("Unknown transport: %s", value);
+                    transport = value;
+                    break;
+                case "Routing":
+                    if (!value.matches("vector|state"))
+                        raiseException("Unknown routing: %s", value);
+                    Settings.linkState = value.equals("state");
+                    break;
+                case "Updates":
+                    if (!value.matches("full|delta"))
+                        raiseException("Unknown update mode: %s", value);
+                    Settings.incremental = value.equals("delta");
+                    break;
+                case "Vectors":
+                    if (!value.matches("each|batch"))
+                        raiseException("Unknown vector processing: %s", value);
+                    Settings.coalescing = value.equals("batch");
+                    break;
+                case "Metric":
+                    if (!value.matches("static|rtt"))
+                        raiseException("Unknown metric: %s", value);
+                    Settings.measured = value.equals("rtt");
+                    break;
+                case "Ping":
+                    String[] periods = value.split(",");
+                    Settings.pingPeriod = Long.parseLong(periods[0]);
+                    Settings.maxPingPeriod = periods.length > 1
+                        ? Long.parseLong(periods[1]) : Settings.pingPeriod;
+                    if (Settings.maxPingPeriod < Settings.pingPeriod)
+                        raiseException("Invalid ping periods: %s", value);
+                    break;
+                case "Timeout":
+                    Settings.echoTimeout = Long.parseLong(value);
+                    break;
+                case "LinkLife":
+                    Settings.linkLife = Long.parseLong(value);
+                    break;
+                case "Pacing":
+                    Settings.pacing = Long.parseLong(value);
+                    if (Settings.pacing < 0)
+                        raiseException("Invalid pacing interval: %s", value);
+                    break;
+                case "Traffic":
+                    traffic = Integer.parseInt(value);
+                    break;
+                case "Simulate":
+                    String[] simulation = value.split(",");
+                    long latency = simulation.length > 1
+                        ? Long.parseLong(simulation[1]) : 1;
+                    if (latency < 0)
+                        raiseException("Invalid latency: %s", value);
+                    Simulator.enable(Long.parseLong(simulation[0]), latency);
+                    break;
+                case "Log":
+                    if (!value.matches("tables|events"))
+                        raiseException("Unknown log level: %s", value);
+                    Settings.verbose = value.equals("tables");
+                    break;
+                case "Threads":
+                    if (!value.matches("platform|virtual"))
+                        raiseException("Unknown thread type: %s", value);
+                    if (value.equals("virtual") && !Threads.enableVirtual())
+                        System.err.println("Virtual threads are not "
+                            + "supported, platform threads are used instead.");
+                    break;
+            }
         }
+        if (Settings.echoTimeout <= 0
+                || Settings.echoTimeout >= Settings.pingPeriod)
+            raiseException("The timeout must be shorter than the ping period");
+        if (transport.equals("channel"))
+            channel = new SharedChannel(PACKET_LENGTH);
+        else if (transport.equals("loopback"))
+            loopback = new Loopback(INBOX_CAPACITY);
+
+        Program program = new Program();
+        if (!GraphicsEnvironment.isHeadless())
+            program.initLayout();
+
+        if (path != null)
+            program.initNodes(Files.readAllLines(path));
+        else program.initNodes(N, L, U);
+        if (traffic > 0)
+            Traffic.start(new ArrayList<>(nodes.values()), traffic, 0);
+        // Without a script or the shell, a simulation runs like the network
+        if (path == null && Simulator.isEnabled()
+                && GraphicsEnvironment.isHeadless())
+            Node.sleep(Long.MAX_VALUE);
     }
     
     public void initNodes(List<String> program)
@@ -106,7 +210,7 @@ public class Program {
     
     private void start() {
         nodes.values().forEach(Node::start);
-        nodes.values().forEach(Node::broadcastDistanceVector);
+        nodes.values().forEach(Node::advertise);
     }
     
     private static final String FP = "\\d+(?:\\.\\d+)?";
@@ -178,6 +282,11 @@ public class Program {
     private static final Pattern
         LINE     = compile("([^/#]*)(?:(?://|#).*)?"),
         ENV_CMD  = compile("wait (%s)", FP),
+        CONV_CMD = compile("converge(?: (%s))?", FP),
+        STAT_CMD = compile("stats"),
+        LOAD_CMD = compile("traffic (\\d+) (%s)", FP),
+        ROUT_CMD = compile("routes (\\w+)"),
+        CHCK_CMD = compile("check"),
         LINK_CMD = compile("(\\w+) (\\w+) (%s|inf)", FP),
         NODE_CMD = compile("(\\w+) (leave|join((?: \\w+ %s)*))", FP),
         NEIGHBOR = compile(" (\\w+) (%s)", FP);
@@ -191,6 +300,45 @@ public class Program {
         if ((m = ENV_CMD.matcher(command)).matches()) {
             Node.sleep((long) (Double.parseDouble(m.group(1)) * 1000));
         }
+        else if ((m = CONV_CMD.matcher(command)).matches()) {
+            double timeout = m.group(1) != null
+                ? Double.parseDouble(m.group(1)) : CONVERGE_TIMEOUT;
+            long time = Convergence.await((long) (timeout * 1000));
+            if (time < 0)
+                log("Not converged in %s s", Node.format(timeout));
+            else log("Converged in %.2f s", time / 1000.0);
+        }
+        else if ((m = STAT_CMD.matcher(command)).matches()) {
+            String dropped = loopback != null
+                ? String.format(", %d messages dropped", loopback.getDropped())
+                : "";
+            if (Settings.linkState)
+                log("Link states: %d sent%s",
+                    LinkStateEngine.getSentLinkStates(), dropped);
+            else log("Vectors: %d sent, %d suppressed%s",
+                DistanceVectorEngine.getSentVectors(),
+                DistanceVectorEngine.getSuppressedVectors(), dropped);
+            log("Echoes: %d requests sent", Node.getSentEchoRequests());
+            log("CPU: %.1f ms per node", Node.getBusyTime() / 1e6
+                / Math.max(nodes.size(), 1));
+        }
+        else if ((m = LOAD_CMD.matcher(command)).matches()) {
+            Traffic.start(new ArrayList<>(nodes.values()),
+                Integer.parseInt(m.group(1)),
+                (long) (Double.parseDouble(m.group(2)) * 1000));
+        }
+        else if ((m = ROUT_CMD.matcher(command)).matches()) {
+            Node node = nodes.get(m.group(1));
+            if (node == null) raiseException("%s does not exist!", m.group(1));
+            ForwardingTable routes = node.getRoutes();
+            log("%s routes (version %d): %s", node, routes.version(), routes);
+        }
+        else if ((m = CHCK_CMD.matcher(command)).matches()) {
+            // The measured distances differ from the specified ones
+            if (Settings.measured)
+                log("The routes cannot be checked with measured distances");
+            else check();
+        }
         else if ((m = LINK_CMD.matcher(command)).matches()) {
             Node node1 = nodes.get(m.group(1));
             Node node2 = nodes.get(m.group(2));
@@ -231,16 +379,50 @@ public class Program {
         throw new RuntimeException(String.format(format, args));
     }
     
+    /**
+     * Checks the latest routes of all nodes against the shortest paths by the
+     * specified distances of the links.
+     *
+     * @return The number of the routes that differ from them.
+     */
+    static long check() {
+        Map<Integer, ForwardingTable> routes = new HashMap<>();
+        for (Node node : nodes.values())
+            routes.put(node.getAddress(), node.getRoutes());
+        return new Oracle(routes, topology, BASE_PORT, ids.size()).check();
+    }
+    /**
+     * Terminates the network and forgets it, so that another one can be run
+     * in the same process, e.g. by the tests. The settings are kept.
+     */
+    static void reset() throws IOException {
+        nodes.values().forEach(Node::terminate);
+        nodes.clear();
+        ids.clear();
+        topology.clear();
+        if (channel != null)
+            channel.close();
+        channel = null;
+        loopback = null;
+        transport = "socket";
+        Simulator.disable();
+        Convergence.reset();
+    }
+    
     private void link(Node node1, Node node2, double distance) {
         System.out.println();
+        topology.put(Oracle.key(node1.getAddress(), node2.getAddress()),
+            distance);
         node1.setNeighborDistance(node2.getAddress(), distance);
         node2.setNeighborDistance(node1.getAddress(), distance);
     }
     
     private void terminate(Node node) {
         System.out.println();
-        node.terminate();
+        node.leave();
         nodes.remove(ids.get(node.getAddress()));
+        topology.keySet().removeIf(key -> (int) (key >>> 32)
+            == node.getAddress() || key.intValue() == node.getAddress());
     }
     
     private void instantiate(String id, Object... args)
@@ -254,18 +436,31 @@ public class Program {
             double distance = ((Number) args[i + 1]).doubleValue();
             neighbor.setNeighborDistance(address, distance);
             neighbors.add(new Node.Neighbor(neighbor.getAddress(), distance));
+            topology.put(Oracle.key(neighbor.getAddress(), address), distance);
         }
-        Node node = new Node(address, neighbors);
+        Node node = new Node(address, neighbors, open(address));
         nodes.put(id, node);
         node.start();
+        node.advertise(); // As the initial nodes, before its first echoes
+    }
+    
+    private static Transport open(int address) throws SocketException {
+        if (Simulator.isEnabled())
+            return Simulator.get().open(address);
+        if (channel != null)
+            return channel.open(address);
+        if (loopback != null)
+            return loopback.open(address);
+        return new SerializedDatagram(address, PACKET_LENGTH);
     }
     
     private void initialize(int N, int L, int U) throws SocketException {
         int[] ports = new int[N];
         Arrays.setAll(ports, i -> BASE_PORT + i);
         
+        Random random = Simulator.random();
         int[] conn = new int[N];
-        Arrays.setAll(conn, i -> L + (int)(Math.random() * (U - L + 1)));
+        Arrays.setAll(conn, i -> L + random.nextInt(U - L + 1));
         
         int numConn = Arrays.stream(conn).sum();
         if (numConn % 2 == 1) {
@@ -279,34 +474,51 @@ public class Program {
         for (int i = 0; i < N; i++)
             pairs.addAll(Collections.nCopies(conn[i], i));
         
-        Collections.shuffle(pairs);
+        Collections.shuffle(pairs, random);
         
         List<List<Node.Neighbor>> neighbors = new ArrayList<>(N);
         for (int i = 0; i < N; i++)
             neighbors.add(new ArrayList<>(conn[i]));
+        Set<Long> links = new HashSet<>(numConn);
         
         while (!pairs.isEmpty()) {
             int n1 = pairs.get(pairs.size() - 1);
             int i = pairs.size() - 2;
-            while (pairs.get(i) == n1)
+            while (i >= 0 && (pairs.get(i) == n1
+                    || links.contains((long) Math.min(n1, pairs.get(i)) * N
+                        + Math.max(n1, pairs.get(i)))))
                 i--;
+            if (i < 0) { // No other node is left to be linked
+                pairs.remove(pairs.size() - 1);
+                continue;
+            }
             int n2 = pairs.get(i);
+            links.add((long) Math.min(n1, n2) * N + Math.max(n1, n2));
             
-            double distance = Math.random();
+            double distance = random.nextDouble();
             neighbors.get(n1).add(new Node.Neighbor(ports[n2], distance));
             neighbors.get(n2).add(new Node.Neighbor(ports[n1], distance));
+            topology.put(Oracle.key(ports[n1], ports[n2]), distance);
             
             pairs.remove(pairs.size() - 1);
             pairs.remove(i);
         }
         
         String[] _ids = IntStream.range(0, N)
-            .mapToObj(i -> String.valueOf((char) (65 + i)))
-            .toArray(String[]::new);
+            .mapToObj(Program::generateIdentifier).toArray(String[]::new);
         for (int i = 0; i < N; i++)
             ids.put(ports[i], _ids[i]);
         for (int i = 0; i < N; i++)
-            nodes.put(_ids[i], new Node(ports[i], neighbors.get(i)));
+            nodes.put(_ids[i],
+                new Node(ports[i], neighbors.get(i), open(ports[i])));
+    }
+    
+    /* A, B, ..., Z, AA, AB, ... */
+    private static String generateIdentifier(int index) {
+        StringBuilder id = new StringBuilder();
+        for (index++; index > 0; index = (index - 1) / 26)
+            id.append((char) ('A' + (index - 1) % 26));
+        return id.reverse().toString();
     }
     
     private void initialize(List<Link> links) throws SocketException {
@@ -328,12 +540,14 @@ public class Program {
             int n1 = indices.get(link.node1), n2 = indices.get(link.node2);
             neighbors.get(n1).add(new Node.Neighbor(ports[n2], link.distance));
             neighbors.get(n2).add(new Node.Neighbor(ports[n1], link.distance));
+            topology.put(Oracle.key(ports[n1], ports[n2]), link.distance);
         }
         
         for (int i = 0; i < N; i++)
             ids.put(ports[i], _ids[i]);
         for (int i = 0; i < N; i++)
-            nodes.put(_ids[i], new Node(ports[i], neighbors.get(i)));
+            nodes.put(_ids[i],
+                new Node(ports[i], neighbors.get(i), open(ports[i])));
     }
     
     private static class Link {
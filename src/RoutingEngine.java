@@ -0,0 +1,37 @@
+import java.util.Collection;
+
+/**
+ * The algorithm by which a node computes its routes from the links to its
+ * neighbors and the messages of the other nodes.
+ *
+ * An engine is only called in the mailbox of its node, so it needs no lock.
+ * It updates the routing table of the node in a transaction, and publishes it
+ * by Node.filterNodes() once the routes change. The liveness of the neighbors
+ * and the forwarding of the data packets are left to the node.
+ *
+ * @author Burak Gök
+ */
+interface RoutingEngine {
+    /**
+     * Advertises the initial routes of the node to its neighbors.
+     */
+    void start();
+
+    /**
+     * Called once the distances of the links to the specified neighbors have
+     * been updated, where an unreachable or departed one is at infinity.
+     *
+     * @param cause Of the change, to be logged with the routes.
+     */
+    void linksChanged(Collection<Node.Neighbor> neighbors, String cause);
+
+    /**
+     * @return false if the message does not belong to the engine.
+     */
+    boolean receive(Node.Message message);
+
+    /**
+     * Called once the node has terminated, to give up the work left.
+     */
+    default void stop() {}
+}
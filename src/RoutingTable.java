@@ -0,0 +1,334 @@
+import java.util.Arrays;
+
+/**
+ * A routing table keyed by the destination address, which keeps the distance,
+ * the next hop and the sequence number of each route in primitive arrays.
+ *
+ * The table is open-addressed with linear probing. The addresses of the nodes
+ * are consecutive, so they are used as their own hashes, and a table of a
+ * whole network is laid out almost like an array indexed by the address.
+ *
+ * The routes are accessed through their slots, which are only valid until the
+ * next route is added. It is not thread-safe.
+ *
+ * A route may also have alternate next hops, ordered by their distance, the
+ * first ones of which may be as short as the route itself. They are not part
+ * of the transactions below, except that a route whose equal-cost next hops
+ * are set is logged, without being counted as changed.
+ *
+ * An update of the table is a transaction, which starts with begin(). The
+ * first change of each route during the transaction logs its previous values,
+ * so the changed routes and their previous values are known without copying
+ * or scanning the table. A transaction may consist of several steps, each of
+ * which starts with a checkpoint(), and whose previous values are the ones
+ * at the checkpoint.
+ *
+ * @author Burak Gök
+ */
+public class RoutingTable {
+    public static final int DIRECT = -1; // Next hop of a directly reached node
+    private static final int FREE = Integer.MIN_VALUE;
+
+    private int[] addresses, hops, sequences, equalCosts;
+    private double[] distances;
+    private int[][] alternates;
+    private int size = 0;
+
+    /* Previous values of the changed routes in the transaction, and in the
+     * step in which they have last been changed.
+     */
+    private int[] logged; // Position in the log plus one, or zero
+    private int[] logAddresses = new int[8], logHops = new int[8],
+                  logSequences = new int[8], stepHops = new int[8],
+                  steps = new int[8];
+    private double[] logDistances = new double[8], stepDistances = new double[8];
+    private int logSize = 0, step = 0;
+    private boolean recording = false;
+
+    public RoutingTable() {
+        this(8);
+    }
+    /**
+     * @param capacity It is rounded up to the next power of two.
+     */
+    public RoutingTable(int capacity) {
+        allocate(Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1);
+    }
+    private void allocate(int length) {
+        addresses = new int[length];
+        Arrays.fill(addresses, FREE);
+        hops = new int[length];
+        sequences = new int[length];
+        distances = new double[length];
+        alternates = new int[length][];
+        equalCosts = new int[length];
+        logged = new int[length];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return The slot of the route to the address, or -1 if there is none.
+     */
+    public int find(int address) {
+        int mask = addresses.length - 1;
+        for (int i = address & mask;; i = (i + 1) & mask) {
+            if (addresses[i] == address)
+                return i;
+            if (addresses[i] == FREE)
+                return -1;
+        }
+    }
+
+    /**
+     * Iterates over the routes as in
+     * {@code for (int i = table.next(0); i >= 0; i = table.next(i + 1))}.
+     *
+     * @return The first used slot starting from the specified one, or -1.
+     */
+    public int next(int slot) {
+        for (; slot < addresses.length; slot++)
+            if (addresses[slot] != FREE)
+                return slot;
+        return -1;
+    }
+
+    public int address(int slot) {
+        return addresses[slot];
+    }
+    public double distance(int slot) {
+        return distances[slot];
+    }
+    public int hop(int slot) {
+        return hops[slot];
+    }
+    /**
+     * @return The sequence number of the route, which is zero unless set.
+     */
+    public int sequence(int slot) {
+        return sequences[slot];
+    }
+    /**
+     * @return The alternate next hops of the route, or null if there are none.
+     */
+    public int[] alternates(int slot) {
+        return alternates[slot];
+    }
+    /**
+     * @return The number of the alternates that are as short as the route.
+     */
+    public int equalCost(int slot) {
+        return equalCosts[slot];
+    }
+    public void setDistance(int slot, double distance) {
+        record(slot);
+        distances[slot] = distance;
+    }
+    public void setHop(int slot, int hop) {
+        record(slot);
+        hops[slot] = hop;
+    }
+    public void setSequence(int slot, int sequence) {
+        record(slot);
+        sequences[slot] = sequence;
+    }
+    public void setAlternates(int slot, int[] alternates, int equalCost) {
+        if (equalCost > 0 || equalCosts[slot] > 0)
+            record(slot);
+        this.alternates[slot] = alternates;
+        equalCosts[slot] = equalCost;
+    }
+
+    /**
+     * Adds the route, or replaces the existing one to the same address.
+     *
+     * @return The slot of the route.
+     */
+    public int put(int address, double distance, int hop) {
+        if (2 * (size + 1) > addresses.length)
+            resize(2 * addresses.length);
+        int mask = addresses.length - 1, i = address & mask;
+        for (; addresses[i] != FREE && addresses[i] != address; i = (i + 1) & mask);
+        if (addresses[i] == FREE) {
+            addresses[i] = address;
+            hops[i] = FREE; // It is logged as a new route
+            sequences[i] = 0;
+            alternates[i] = null;
+            equalCosts[i] = 0;
+            size++;
+        }
+        record(i);
+        distances[i] = distance;
+        hops[i] = hop;
+        return i;
+    }
+    private void resize(int length) {
+        int[] _addresses = addresses, _hops = hops, _sequences = sequences,
+              _equalCosts = equalCosts, _logged = logged;
+        double[] _distances = distances;
+        int[][] _alternates = alternates;
+        allocate(length);
+        int mask = length - 1;
+        for (int _i = 0; _i < _addresses.length; _i++) {
+            if (_addresses[_i] == FREE)
+                continue;
+            int i = _addresses[_i] & mask;
+            for (; addresses[i] != FREE; i = (i + 1) & mask);
+            addresses[i] = _addresses[_i];
+            distances[i] = _distances[_i];
+            hops[i] = _hops[_i];
+            sequences[i] = _sequences[_i];
+            alternates[i] = _alternates[_i];
+            equalCosts[i] = _equalCosts[_i];
+            logged[i] = _logged[_i];
+        }
+    }
+
+    public void remove(int address) {
+        int slot = find(address);
+        if (slot < 0)
+            return;
+        record(slot); // The log keeps it as removed
+        delete(slot);
+    }
+    /**
+     * Removes the routes that have become unreachable in the transaction,
+     * which are the only ones that can be.
+     */
+    public void removeUnreachable() {
+        for (int k = 0; k < logSize; k++) {
+            int slot = find(logAddresses[k]);
+            if (slot >= 0 && !Double.isFinite(distances[slot]))
+                delete(slot);
+        }
+    }
+    /* Shifts the following routes of the probe sequence back, so that none of
+     * them is separated from its home slot by a free one.
+     */
+    private void delete(int slot) {
+        int mask = addresses.length - 1;
+        for (int i = (slot + 1) & mask; addresses[i] != FREE; i = (i + 1) & mask) {
+            int home = addresses[i] & mask;
+            if (((i - home) & mask) >= ((i - slot) & mask)) {
+                addresses[slot] = addresses[i];
+                distances[slot] = distances[i];
+                hops[slot] = hops[i];
+                sequences[slot] = sequences[i];
+                alternates[slot] = alternates[i];
+                equalCosts[slot] = equalCosts[i];
+                logged[slot] = logged[i];
+                slot = i;
+            }
+        }
+        addresses[slot] = FREE;
+        alternates[slot] = null;
+        logged[slot] = 0;
+        size--;
+    }
+
+    /**
+     * Starts a transaction, forgetting the changes of the previous one.
+     */
+    public void begin() {
+        for (int k = 0; k < logSize; k++) {
+            int slot = find(logAddresses[k]);
+            if (slot >= 0)
+                logged[slot] = 0;
+        }
+        logSize = 0;
+        recording = true;
+        checkpoint();
+    }
+    /**
+     * Starts the next step of the transaction.
+     */
+    public void checkpoint() {
+        step++;
+    }
+    private void record(int slot) {
+        if (!recording)
+            return;
+        int k = logged[slot] - 1;
+        if (k < 0) {
+            if (logSize == logAddresses.length) {
+                logAddresses = Arrays.copyOf(logAddresses, 2 * logSize);
+                logHops = Arrays.copyOf(logHops, 2 * logSize);
+                logSequences = Arrays.copyOf(logSequences, 2 * logSize);
+                logDistances = Arrays.copyOf(logDistances, 2 * logSize);
+                stepHops = Arrays.copyOf(stepHops, 2 * logSize);
+                stepDistances = Arrays.copyOf(stepDistances, 2 * logSize);
+                steps = Arrays.copyOf(steps, 2 * logSize);
+            }
+            k = logSize;
+            logAddresses[k] = addresses[slot];
+            logDistances[k] = distances[slot];
+            logHops[k] = hops[slot];
+            logSequences[k] = sequences[slot];
+            logged[slot] = ++logSize;
+        }
+        else if (steps[k] == step)
+            return;
+        stepDistances[k] = distances[slot];
+        stepHops[k] = hops[slot];
+        steps[k] = step;
+    }
+    private boolean isStepped(int slot) { // Changed in the current step
+        return logged[slot] != 0 && steps[logged[slot] - 1] == step;
+    }
+
+    /**
+     * @return Whether the route has been added in the step.
+     */
+    public boolean isNew(int slot) {
+        return isStepped(slot) && stepHops[logged[slot] - 1] == FREE;
+    }
+    /**
+     * @return The distance of the route when the step began.
+     */
+    public double previousDistance(int slot) {
+        return isStepped(slot) ? stepDistances[logged[slot] - 1] : distances[slot];
+    }
+    /**
+     * @return The next hop of the route when the step began, or
+     *         Integer.MIN_VALUE if it is new.
+     */
+    public int previousHop(int slot) {
+        return isStepped(slot) ? stepHops[logged[slot] - 1] : hops[slot];
+    }
+
+    /**
+     * Iterates over the addresses of the routes that may have been added,
+     * removed or changed in the transaction, as in
+     * {@code for (int k = 0; k < table.logSize(); k++) table.logged(k)}.
+     */
+    public int logSize() {
+        return logSize;
+    }
+    public int logged(int k) {
+        return logAddresses[k];
+    }
+
+    /**
+     * @return Whether any route has been added, removed or changed in the
+     *         transaction.
+     */
+    public boolean isChanged() {
+        for (int k = 0; k < logSize; k++)
+            if (isChanged(k, find(logAddresses[k])))
+                return true;
+        return false;
+    }
+    /**
+     * @return Whether the route has been added or changed in the transaction.
+     */
+    public boolean isChanged(int slot) {
+        return logged[slot] != 0 && isChanged(logged[slot] - 1, slot);
+    }
+    private boolean isChanged(int k, int slot) {
+        return slot < 0 || logHops[k] != hops[slot]
+            || logDistances[k] != distances[slot]
+            || logSequences[k] != sequences[slot];
+    }
+}
@@ -0,0 +1,19 @@
+/**
+ * Runs tasks after their delays, either by the wall clock or by the virtual
+ * clock of a simulation.
+ *
+ * @author Burak Gök
+ */
+public interface Scheduler {
+    /**
+     * @param delay In milliseconds.
+     */
+    Timeout schedule(Runnable task, long delay);
+
+    interface Timeout {
+        /**
+         * @return false if the task has already been run or cancelled.
+         */
+        boolean cancel();
+    }
+}
@@ -1,62 +1,90 @@
-
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
 
 /**
  * @author Burak Gök
  */
-public class SerializedDatagram {
+public class SerializedDatagram implements Transport {
+    private static final InetAddress LOCALHOST = InetAddress.getLoopbackAddress();
+    private static final int PARTIAL_MESSAGES = 64, PARTIAL_BYTES = 16 << 20,
+                             PARTIAL_LIFETIME = 5_000;
+
     private final byte[] buffer;
     private final DatagramSocket socket;
     private final DatagramPacket packet;
+    private final ByteBuffer input, fragment;
+    private ByteBuffer output;
+    private final MessageCodec.Reassembler reassembler =
+        new MessageCodec.Reassembler(PARTIAL_MESSAGES, PARTIAL_BYTES,
+            PARTIAL_LIFETIME);
+    private int fragmented = 0;
 
     public SerializedDatagram(int port, int packetLength) throws SocketException {
         buffer = new byte[packetLength];
         socket = new DatagramSocket(port);
         packet = new DatagramPacket(buffer, buffer.length);
+        input = ByteBuffer.wrap(buffer);
+        output = ByteBuffer.allocate(packetLength);
+        fragment = ByteBuffer.allocate(packetLength);
     }
 
-    public Object receive() throws IOException, ClassNotFoundException {
-        socket.receive(packet);
-        try (ByteArrayInputStream bais = new ByteArrayInputStream(buffer);
-             ObjectInputStream ois = new ObjectInputStream(bais)) {
-            return ois.readObject();
+    public Object receive() throws IOException {
+        while (true) {
+            socket.receive(packet);
+            input.clear().limit(packet.getLength());
+            if (!MessageCodec.isFragment(input))
+                return MessageCodec.decode(input);
+            
+            ByteBuffer message = reassembler.add(input);
+            if (message != null)
+                return MessageCodec.decode(message);
         }
     }
 
-    public void send(Object message, int... ports) {
-        byte[] bytes;
-        while (true)
-            try (ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                 ObjectOutputStream oos = new ObjectOutputStream(baos)) {
-                oos.writeObject(message);
-                oos.flush();
-                bytes = baos.toByteArray();
-                break;
-            } catch (IOException ex) {
-                System.out.println(ex.getMessage());
-            }
+    /* The output buffer is reused across messages, so concurrent senders
+     * of the same node are serialized.
+     */
+    public synchronized void send(Object message, int... ports) {
+        int length = MessageCodec.length(message);
+        if (length > output.capacity())
+            output = ByteBuffer.allocate(Math.max(length, 2 * output.capacity()));
+        output.clear();
+        MessageCodec.encode(message, output);
+
+        if (length <= buffer.length) {
+            send(output.array(), length, ports);
+            return;
+        }
+        
+        output.flip();
+        int id = ++fragmented;
+        for (int offset = 0; offset < length;) {
+            fragment.clear();
+            offset = MessageCodec.encodeFragment(output, id, offset, fragment);
+            send(fragment.array(), fragment.position(), ports);
+        }
+    }
+    private void send(byte[] bytes, int length, int... ports) {
+        DatagramPacket p = new DatagramPacket(bytes, length, LOCALHOST, 0);
         for (int port : ports)
             while (true)
                 try {
-                    DatagramPacket p = new DatagramPacket(bytes, bytes.length,
-                        InetAddress.getLocalHost(), port);
+                    p.setPort(port);
                     socket.send(p);
                     break;
                 } catch (IOException ex) {
+                    if (socket.isClosed()) // The node has terminated
+                        return;
                     System.out.println(ex.getMessage());
                 }
     }
-    
+
     public void close() {
         socket.close();
     }
-    
+
 }
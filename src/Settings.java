@@ -0,0 +1,65 @@
+/**
+ * Protocol settings, which can be changed from the command line before the
+ * nodes are created.
+ *
+ * @author Burak Gök
+ */
+public final class Settings {
+    /**
+     * Whether the nodes flood their links and compute the shortest paths
+     * themselves, rather than exchange distance vectors.
+     */
+    public static boolean linkState = false;
+
+    /**
+     * Whether a node sends only the entries that have changed since its last
+     * distance vector to the same neighbor.
+     */
+    public static boolean incremental = false;
+
+    /**
+     * Whether the distance vectors that are waiting to be processed are
+     * merged per neighbor, so that the routes are recomputed and broadcast
+     * once for all of them.
+     */
+    public static boolean coalescing = false;
+
+    /**
+     * The minimum interval between two distance vectors sent to the same
+     * neighbor in milliseconds, or zero if they are not paced.
+     */
+    public static long pacing = 0;
+
+    /**
+     * Whether the distance of a link is its smoothed round-trip time in
+     * milliseconds, rather than the specified one, while the link is up.
+     */
+    public static boolean measured = false;
+
+    /**
+     * The minimum and the maximum interval between two echo requests sent to
+     * the same neighbor in milliseconds. A neighbor that has been heard from
+     * within its interval is not sent one.
+     */
+    public static long pingPeriod = 5_000, maxPingPeriod = 5_000;
+
+    /**
+     * The time to wait for an echo reply in milliseconds, after which the
+     * neighbor is considered unreachable.
+     */
+    public static long echoTimeout = 1_000;
+
+    /**
+     * The time in milliseconds after which an unreachable neighbor is
+     * forgotten.
+     */
+    public static long linkLife = 15_000;
+
+    /**
+     * Whether the routing tables are logged whenever they change, which is
+     * impractical for large networks.
+     */
+    public static boolean verbose = true;
+
+    private Settings() {}
+}
@@ -0,0 +1,196 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * A datagram channel that carries the traffic of all nodes in the JVM.
+ *
+ * Every packet is prefixed with the address of its destination node. A single
+ * I/O thread reads the packets, reassembles and decodes them, and hands the
+ * messages to the endpoint of that node.
+ *
+ * @author Burak Gök
+ */
+public class SharedChannel implements Runnable {
+    public static final int HEADER_LENGTH = Integer.BYTES;
+    private static final int RECEIVE_BUFFER = 8 << 20,
+                             PARTIAL_MESSAGES = 64, PARTIAL_BYTES = 16 << 20,
+                             PARTIAL_LIFETIME = 5_000;
+
+    private final Map<Integer, Endpoint> endpoints = new ConcurrentHashMap<>();
+    private final int packetLength;
+    private final ByteBuffer buffer;
+    private final Selector selector;
+    private final DatagramChannel receiver, sender;
+    private final SocketAddress address;
+
+    public SharedChannel(int packetLength) throws IOException {
+        this.packetLength = packetLength;
+        buffer = ByteBuffer.allocateDirect(HEADER_LENGTH + packetLength);
+        selector = Selector.open();
+
+        receiver = DatagramChannel.open();
+        receiver.setOption(StandardSocketOptions.SO_RCVBUF, RECEIVE_BUFFER);
+        receiver.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        receiver.configureBlocking(false);
+        receiver.register(selector, SelectionKey.OP_READ);
+        address = receiver.getLocalAddress();
+
+        /* Sending is done through a separate blocking channel so that a full
+         * socket buffer stalls the sender instead of dropping the packet.
+         */
+        sender = DatagramChannel.open();
+
+        Thread thread = new Thread(this, "Shared channel");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public Transport open(int address) {
+        Endpoint endpoint = new Endpoint(address);
+        endpoints.put(address, endpoint);
+        return endpoint;
+    }
+
+    /**
+     * @param packet A header followed by an encoded message.
+     */
+    public void send(ByteBuffer packet) throws IOException {
+        sender.send(packet, address);
+    }
+
+    public void run() {
+        try {
+            while (true) {
+                selector.select();
+                for (Iterator<SelectionKey> iterator =
+                        selector.selectedKeys().iterator(); iterator.hasNext();) {
+                    iterator.next();
+                    iterator.remove();
+                    while (receiver.receive(buffer) != null) {
+                        buffer.flip();
+                        dispatch(buffer);
+                        buffer.clear();
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException ex) {
+            System.err.println(ex.getMessage());
+        }
+    }
+
+    private void dispatch(ByteBuffer packet) {
+        if (packet.remaining() < HEADER_LENGTH)
+            return;
+        Endpoint endpoint = endpoints.get(packet.getInt());
+        if (endpoint == null) // The node has left
+            return;
+        try {
+            if (MessageCodec.isFragment(packet)
+                    && (packet = endpoint.reassembler.add(packet)) == null)
+                return;
+            endpoint.inbox.add(MessageCodec.decode(packet));
+        } catch (ProtocolException ex) {
+            System.err.println(ex.getMessage());
+        }
+    }
+
+    public void close() throws IOException {
+        selector.close();
+        receiver.close();
+        sender.close();
+    }
+
+    private class Endpoint implements Transport {
+        private final int address;
+        private final BlockingQueue<Object> inbox = new LinkedBlockingQueue<>();
+        private final ByteBuffer fragment;
+        private ByteBuffer output;
+        private int fragmented = 0;
+        
+        // Only accessed by the I/O thread
+        private final MessageCodec.Reassembler reassembler =
+            new MessageCodec.Reassembler(PARTIAL_MESSAGES, PARTIAL_BYTES,
+                PARTIAL_LIFETIME);
+
+        public Endpoint(int address) {
+            this.address = address;
+            output = ByteBuffer.allocate(HEADER_LENGTH + packetLength);
+            fragment = ByteBuffer.allocate(HEADER_LENGTH + packetLength);
+        }
+
+        public Object receive() throws IOException {
+            Object message;
+            try {
+                message = inbox.take();
+            } catch (InterruptedException ex) {
+                throw new InterruptedIOException(ex.getMessage());
+            }
+            if (message == this) { // Closed
+                inbox.add(this);
+                throw new SocketException("Socket closed");
+            }
+            return message;
+        }
+
+        /* The output buffer is reused across messages, so concurrent senders
+         * of the same node are serialized.
+         */
+        public synchronized void send(Object message, int... addresses) {
+            int length = MessageCodec.length(message);
+            if (HEADER_LENGTH + length > output.capacity())
+                output = ByteBuffer.allocate(
+                    Math.max(HEADER_LENGTH + length, 2 * output.capacity()));
+            output.clear().position(HEADER_LENGTH);
+            MessageCodec.encode(message, output);
+
+            if (length <= packetLength) {
+                send(output, HEADER_LENGTH + length, addresses);
+                return;
+            }
+
+            output.flip().position(HEADER_LENGTH);
+            int id = ++fragmented;
+            for (int offset = 0; offset < length;) {
+                fragment.clear().position(HEADER_LENGTH);
+                offset = MessageCodec.encodeFragment(
+                    output, id, offset, fragment);
+                send(fragment, fragment.position(), addresses);
+            }
+        }
+        private void send(ByteBuffer packet, int length, int... addresses) {
+            for (int address : addresses)
+                while (true)
+                    try {
+                        packet.putInt(0, address).position(0).limit(length);
+                        SharedChannel.this.send(packet);
+                        break;
+                    } catch (IOException ex) {
+                        if (!sender.isOpen()) // The channel has been closed
+                            return;
+                        System.out.println(ex.getMessage());
+                    }
+        }
+
+        public void close() {
+            endpoints.remove(address, this);
+            inbox.add(this);
+        }
+    }
+
+}
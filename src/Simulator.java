@@ -0,0 +1,195 @@
+import java.io.IOException;
+import java.net.SocketException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * A discrete-event simulation of the network, in which the time only passes
+ * from one event to the next, so that the nodes run as fast as the processor
+ * allows.
+ *
+ * The timeouts of the nodes, their events and the delivery of their messages
+ * are all kept in a single queue by their virtual time, and run in order on
+ * the thread that advances the clock. A message is delivered without being
+ * encoded, once the latency of the link has passed, which varies by up to a
+ * half of it, but never before the previous message on the link. The
+ * variation and the random choices of the program are drawn from a seeded
+ * generator, so that a simulation can be reproduced.
+ *
+ * @author Burak Gök
+ */
+public final class Simulator implements Scheduler {
+    private static Simulator instance; // Null unless the clock is virtual
+
+    private final PriorityQueue<Event> events = new PriorityQueue<>();
+    private final Map<Integer, Consumer<Object>> receivers = new HashMap<>();
+    private final Map<Long, Long> links = new HashMap<>(); // Last deliveries
+    private final Random random;
+    private final long latency; // In nanoseconds
+    private long now = 0, scheduled = 0; // The time in nanoseconds
+
+    private Simulator(long seed, long latency) {
+        random = new Random(seed);
+        this.latency = TimeUnit.MILLISECONDS.toNanos(latency);
+    }
+
+    /**
+     * Switches to the virtual clock, which must be done before the nodes are
+     * created.
+     *
+     * @param latency Of the links in milliseconds.
+     */
+    public static void enable(long seed, long latency) {
+        instance = new Simulator(seed, latency);
+    }
+    /**
+     * Switches back to the real clock, once the nodes have terminated.
+     */
+    static void disable() {
+        instance = null;
+    }
+    /**
+     * @return The simulator, or null if the clock is real.
+     */
+    public static Simulator get() {
+        return instance;
+    }
+    public static boolean isEnabled() {
+        return instance != null;
+    }
+
+    public static long currentTimeMillis() {
+        return instance == null ? System.currentTimeMillis()
+            : TimeUnit.NANOSECONDS.toMillis(instance.time());
+    }
+    public static long nanoTime() {
+        return instance == null ? System.nanoTime() : instance.time();
+    }
+    /**
+     * @return The seeded generator of the simulation, or the one of the
+     *         thread if the clock is real.
+     */
+    public static Random random() {
+        return instance == null ? ThreadLocalRandom.current() : instance.random;
+    }
+
+    private synchronized long time() {
+        return now;
+    }
+
+    public synchronized Timeout schedule(Runnable task, long delay) {
+        return post(task, TimeUnit.MILLISECONDS.toNanos(delay));
+    }
+    private Event post(Runnable task, long delay) {
+        Event event = new Event(task, now + delay, scheduled++);
+        events.add(event);
+        return event;
+    }
+
+    /**
+     * Runs the events until the clock reaches the specified time from now.
+     *
+     * @param millis It may be Long.MAX_VALUE to run forever.
+     */
+    public synchronized void advance(long millis) {
+        long left = TimeUnit.NANOSECONDS.toMillis(Long.MAX_VALUE - now);
+        long end = millis >= left
+            ? Long.MAX_VALUE : now + TimeUnit.MILLISECONDS.toNanos(millis);
+        for (Event event; (event = events.peek()) != null
+                && event.time <= end;) {
+            events.poll();
+            now = event.time;
+            event.run();
+        }
+        now = end;
+    }
+
+    public Transport open(int address) {
+        return new Endpoint(address);
+    }
+    /**
+     * Hands the messages to the specified address over to the receiver, on the
+     * thread of the simulation.
+     */
+    public synchronized void listen(int address, Consumer<Object> receiver) {
+        receivers.put(address, receiver);
+    }
+
+    private class Endpoint implements Transport {
+        private final int address;
+
+        public Endpoint(int address) {
+            this.address = address;
+        }
+
+        public Object receive() throws IOException {
+            throw new SocketException("The simulation delivers the messages");
+        }
+
+        public void send(Object message, int... addresses) {
+            synchronized (Simulator.this) {
+                for (int address : addresses) {
+                    long link = (long) this.address << 32 | address;
+                    long delay = (long) (latency * (0.5 + random.nextDouble()));
+                    long time = Math.max(now + delay,
+                                         links.getOrDefault(link, 0L));
+                    links.put(link, time);
+                    post(() -> deliver(address, message), time - now);
+                }
+            }
+        }
+
+        public void close() {
+            synchronized (Simulator.this) {
+                receivers.remove(address);
+            }
+        }
+    }
+    private void deliver(int address, Object message) {
+        Consumer<Object> receiver = receivers.get(address);
+        if (receiver != null)
+            receiver.accept(message);
+    }
+
+    /* The events at the same time are run in the order they are scheduled */
+    private class Event implements Timeout, Comparable<Event> {
+        private final Runnable task;
+        private final long time, order;
+        private boolean done = false; // Run or cancelled
+
+        Event(Runnable task, long time, long order) {
+            this.task = task;
+            this.time = time;
+            this.order = order;
+        }
+
+        public boolean cancel() {
+            synchronized (Simulator.this) {
+                if (done)
+                    return false;
+                return done = true;
+            }
+        }
+
+        void run() {
+            if (done)
+                return;
+            done = true;
+            try {
+                task.run();
+            } catch (RuntimeException ex) {
+                ex.printStackTrace();
+            }
+        }
+
+        public int compareTo(Event other) {
+            return time != other.time ? Long.compare(time, other.time)
+                : Long.compare(order, other.order);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+import java.lang.reflect.Method;
+
+/**
+ * Starts the threads of the nodes, which are virtual threads if they are
+ * enabled and the runtime supports them (Java 21 or later), or platform
+ * threads otherwise.
+ *
+ * The virtual threads are created reflectively, so that the program can still
+ * be compiled for and run on older runtimes.
+ *
+ * @author Burak Gök
+ */
+public final class Threads {
+    private static Method ofVirtual, name, unstarted;
+
+    private Threads() {}
+
+    /**
+     * @return false if the runtime does not support virtual threads.
+     */
+    public static boolean enableVirtual() {
+        try {
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            name = builder.getMethod("name", String.class);
+            unstarted = builder.getMethod("unstarted", Runnable.class);
+            Method method = Thread.class.getMethod("ofVirtual");
+            method.invoke(null); // Fails if they are a preview feature
+            ofVirtual = method;
+            return true;
+        } catch (ReflectiveOperationException ex) {
+            return false;
+        }
+    }
+
+    public static boolean isVirtual() {
+        return ofVirtual != null;
+    }
+
+    public static Thread start(String name, Runnable task) {
+        Thread thread;
+        if (ofVirtual != null)
+            try {
+                // A builder is not thread-safe, so a new one is used each time
+                Object builder = ofVirtual.invoke(null);
+                thread = (Thread) unstarted.invoke(
+                    Threads.name.invoke(builder, name), task);
+            } catch (ReflectiveOperationException ex) {
+                throw new IllegalStateException(ex);
+            }
+        else thread = new Thread(task, name);
+        thread.start();
+        return thread;
+    }
+}
@@ -0,0 +1,148 @@
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A hashed timing wheel, which runs the tasks of all nodes on a single thread.
+ *
+ * The wheel is a circular array of buckets, each of which is a doubly linked
+ * list of timeouts. A timeout whose deadline is further than a revolution of
+ * the wheel is kept with the number of the remaining rounds. Scheduling and
+ * cancelling a timeout take constant time, and the deadlines are met with the
+ * precision of a tick.
+ *
+ * The tasks are run on the thread of the wheel, so they should only hand the
+ * work over to somewhere else.
+ *
+ * @author Burak Gök
+ */
+public class TimingWheel implements Scheduler, Runnable {
+    private final long tick; // In nanoseconds
+    private final Bucket[] wheel;
+    private final int mask;
+    private final long start = System.nanoTime();
+    private long ticks = 0;
+
+    // Accessed by other threads
+    private final Queue<Timeout> scheduled = new ConcurrentLinkedQueue<>(),
+                                 cancelled = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param size It is rounded up to the next power of two.
+     */
+    public TimingWheel(String name, long tickDuration, int size) {
+        tick = TimeUnit.MILLISECONDS.toNanos(tickDuration);
+        int length = Integer.highestOneBit(Math.max(size - 1, 1)) << 1;
+        wheel = new Bucket[length];
+        for (int i = 0; i < length; i++)
+            wheel[i] = new Bucket();
+        mask = length - 1;
+
+        Thread thread = new Thread(this, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public Timeout schedule(Runnable task, long delay) {
+        Timeout timeout = new Timeout(task,
+            System.nanoTime() - start + TimeUnit.MILLISECONDS.toNanos(delay));
+        scheduled.add(timeout);
+        return timeout;
+    }
+
+    public void run() {
+        while (true) {
+            long deadline = (ticks + 1) * tick;
+            for (long delay; (delay = deadline - (System.nanoTime() - start)) > 0;)
+                LockSupport.parkNanos(this, delay);
+
+            for (Timeout timeout; (timeout = cancelled.poll()) != null;)
+                if (timeout.bucket != null)
+                    timeout.bucket.remove(timeout);
+            for (Timeout timeout; (timeout = scheduled.poll()) != null;)
+                if (timeout.state.get() == Timeout.PENDING) {
+                    long expiry = timeout.deadline / tick;
+                    timeout.rounds = (expiry - ticks) / wheel.length;
+                    wheel[(int) (Math.max(expiry, ticks) & mask)].add(timeout);
+                }
+
+            wheel[(int) (ticks & mask)].expire();
+            ticks++;
+        }
+    }
+
+    public class Timeout implements Scheduler.Timeout {
+        private static final int PENDING = 0, CANCELLED = 1, EXPIRED = 2;
+        private final Runnable task;
+        private final long deadline;
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+
+        // Accessed by the thread of the wheel
+        private long rounds;
+        private Bucket bucket;
+        private Timeout previous, next;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * @return false if the task has already been run or cancelled.
+         */
+        public boolean cancel() {
+            if (!state.compareAndSet(PENDING, CANCELLED))
+                return false;
+            cancelled.add(this);
+            return true;
+        }
+
+        private void expire() {
+            if (state.compareAndSet(PENDING, EXPIRED))
+                try {
+                    task.run();
+                } catch (RuntimeException ex) {
+                    ex.printStackTrace();
+                }
+        }
+    }
+
+    private static class Bucket {
+        private Timeout head, tail;
+
+        void add(Timeout timeout) {
+            timeout.bucket = this;
+            if (head == null)
+                head = tail = timeout;
+            else {
+                tail.next = timeout;
+                timeout.previous = tail;
+                tail = timeout;
+            }
+        }
+
+        void remove(Timeout timeout) {
+            if (timeout.previous != null)
+                timeout.previous.next = timeout.next;
+            else head = timeout.next;
+            if (timeout.next != null)
+                timeout.next.previous = timeout.previous;
+            else tail = timeout.previous;
+            timeout.previous = timeout.next = null;
+            timeout.bucket = null;
+        }
+
+        void expire() {
+            for (Timeout timeout = head, next; timeout != null; timeout = next) {
+                next = timeout.next;
+                if (timeout.rounds <= 0) {
+                    remove(timeout);
+                    timeout.expire();
+                }
+                else timeout.rounds--;
+            }
+        }
+    }
+}
@@ -0,0 +1,146 @@
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Injects data packets between random pairs of nodes at a fixed rate, and
+ * reports every second how many of them are delivered, over how many hops,
+ * and how many are lost.
+ *
+ * A packet is lost if its destination is unreachable at a node on its path,
+ * if it is forwarded more than Node.MAX_HOPS times, or if it is dropped by
+ * the transport. The last ones are never reported, so the loss is counted as
+ * the packets that are not delivered, which includes the ones in flight.
+ *
+ * In a simulation, the packets are injected by the events of the virtual
+ * clock instead of a thread.
+ *
+ * @author Burak Gök
+ */
+public class Traffic implements Runnable {
+    private static final LongAdder injected = new LongAdder(),
+                                   delivered = new LongAdder(),
+                                   hops = new LongAdder(),
+                                   unreachable = new LongAdder(),
+                                   expired = new LongAdder();
+    private static final int TICK = 10; // Between injections in milliseconds
+
+    private final List<Node> nodes;
+    private final int rate; // Packets per second
+    private final long duration; // In milliseconds, or zero if unlimited
+    
+    /* Progress of a simulated run */
+    private long start, count, second = 1;
+    private long[] first, last;
+
+    private Traffic(List<Node> nodes, int rate, long duration) {
+        this.nodes = nodes;
+        this.rate = rate;
+        this.duration = duration;
+    }
+
+    public static void start(List<Node> nodes, int rate, long duration) {
+        if (nodes.size() < 2)
+            throw new IllegalArgumentException("Not enough nodes for traffic");
+        if (Simulator.isEnabled()) {
+            new Traffic(nodes, rate, duration).simulate();
+            return;
+        }
+        Thread thread = new Thread(new Traffic(nodes, rate, duration),
+            "Traffic");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    static void delivered(int hopCount) {
+        delivered.increment();
+        hops.add(hopCount);
+    }
+    static void unreachable() {
+        unreachable.increment();
+    }
+    static void expired() {
+        expired.increment();
+    }
+
+    public void run() {
+        long start = System.currentTimeMillis(), count = 0;
+        long[] first = counters(), last = first;
+        for (long second = 1;; second++) {
+            long end = start + 1000 * second;
+            if (duration > 0)
+                end = Math.min(end, start + duration);
+
+            for (long now; (now = System.currentTimeMillis()) < end;) {
+                long target = rate * (now - start) / 1000;
+                while (count < target && System.currentTimeMillis() < end)
+                    for (long batch = Math.min(target, count + 64);
+                            count < batch; count++)
+                        inject();
+                Node.sleep(Math.max(Math.min(TICK, end - now), 0));
+            }
+            // The packets that could not be injected in time are skipped
+            count = Math.max(count, rate * (end - start) / 1000);
+
+            long[] current = counters();
+            report("Traffic", current, last,
+                end - start - 1000 * (second - 1));
+            last = current;
+            if (duration > 0 && end - start >= duration)
+                break;
+        }
+        report("Traffic in total", counters(), first, duration);
+    }
+    private void simulate() {
+        start = Simulator.currentTimeMillis();
+        first = last = counters();
+        Simulator.get().schedule(this::tick, TICK);
+    }
+    private void tick() {
+        long now = Simulator.currentTimeMillis(), end = start + 1000 * second;
+        if (duration > 0)
+            end = Math.min(end, start + duration);
+        for (long target = rate * (Math.min(now, end) - start) / 1000;
+                count < target; count++)
+            inject();
+        if (now >= end) {
+            long[] current = counters();
+            report("Traffic", current, last,
+                end - start - 1000 * (second - 1));
+            last = current;
+            if (duration > 0 && end - start >= duration) {
+                report("Traffic in total", counters(), first, duration);
+                return;
+            }
+            second++;
+        }
+        Simulator.get().schedule(this::tick, TICK);
+    }
+    
+    private void inject() {
+        Random random = Simulator.random();
+        int i = random.nextInt(nodes.size());
+        int j = random.nextInt(nodes.size() - 1);
+        if (j >= i) j++;
+        if (nodes.get(i).send(nodes.get(j).getAddress()))
+            injected.increment();
+    }
+
+    private static long[] counters() {
+        return new long[] {injected.sum(), delivered.sum(), hops.sum(),
+            unreachable.sum(), expired.sum()};
+    }
+    /* Reports the difference of the counters within the period */
+    private static void report(String title, long[] current, long[] last,
+            long period) {
+        long packets = current[0] - last[0], received = current[1] - last[1];
+        Program.log("%s: %d packets/s delivered, %.2f hops on average, "
+            + "%.1f%% lost (%d unreachable, %d expired)", title,
+            TimeUnit.SECONDS.toMillis(received) / Math.max(period, 1),
+            received > 0 ? (double) (current[2] - last[2]) / received : 0.0,
+            packets > 0
+                ? Math.max(100.0 * (packets - received) / packets, 0) : 0.0,
+            current[3] - last[3], current[4] - last[4]);
+    }
+}
@@ -0,0 +1,23 @@
+import java.io.IOException;
+
+/**
+ * The endpoint of a node, through which it exchanges messages with the others.
+ *
+ * @author Burak Gök
+ */
+public interface Transport {
+    /**
+     * Blocks until a message arrives. Once the endpoint is closed, it throws
+     * an {@link IOException} instead.
+     */
+    Object receive() throws IOException;
+
+    /**
+     * Sends the specified message to the nodes with the specified addresses.
+     * The message must not be modified afterwards, since it might be handed
+     * to the receivers as is.
+     */
+    void send(Object message, int... addresses);
+
+    void close();
+}
@@ -0,0 +1,83 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * The capacity and the order of the queue, with concurrent producers.
+ *
+ * @author Burak Gök
+ */
+public class BoundedQueueTest {
+    @Test
+    public void empty() {
+        BoundedQueue<Integer> queue = new BoundedQueue<>(4);
+        assertTrue(queue.isEmpty());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void capacity() {
+        BoundedQueue<Integer> queue = new BoundedQueue<>(3); // Rounded up to 4
+        for (int i = 0; i < 4; i++)
+            assertTrue(queue.offer(i));
+        assertFalse(queue.offer(4));
+        assertEquals(0, (int) queue.poll());
+        assertTrue(queue.offer(4));
+        assertFalse(queue.offer(5));
+    }
+
+    @Test
+    public void wrapAround() {
+        BoundedQueue<Integer> queue = new BoundedQueue<>(4);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(queue.offer(2 * i));
+            assertTrue(queue.offer(2 * i + 1));
+            assertEquals(2 * i, (int) queue.poll());
+            assertEquals(2 * i + 1, (int) queue.poll());
+            assertTrue(queue.isEmpty());
+        }
+    }
+
+    /* Every element is received once, in the order of its producer */
+    @Test(timeout = 60_000)
+    public void concurrentProducers() throws InterruptedException {
+        int producers = 4, count = 100_000;
+        BoundedQueue<long[]> queue = new BoundedQueue<>(64);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            long producer = p;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException ex) {
+                    return;
+                }
+                for (long i = 0; i < count; i++)
+                    while (!queue.offer(new long[] {producer, i}))
+                        Thread.yield();
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+
+        long[] next = new long[producers];
+        for (int received = 0; received < producers * count;) {
+            long[] element = queue.poll();
+            if (element == null) {
+                Thread.yield();
+                continue;
+            }
+            assertEquals(next[(int) element[0]]++, element[1]);
+            received++;
+        }
+        for (Thread thread : threads)
+            thread.join();
+        assertTrue(queue.isEmpty());
+        assertNull(queue.poll());
+    }
+}
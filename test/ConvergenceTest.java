@@ -0,0 +1,51 @@
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * The count of the work left, with the messages that are lost or arrive
+ * after they have been taken as lost. Every test leaves no work behind.
+ *
+ * @author Burak Gök
+ */
+public class ConvergenceTest {
+    private static final int A = 1000, B = 1001;
+
+    @Test
+    public void arrived() {
+        Convergence.sent(new int[] {A, B});
+        assertEquals(-1, Convergence.await(50));
+        Convergence.arrived(A);
+        Convergence.arrived(B);
+        assertTrue(Convergence.await(500) >= 0);
+    }
+
+    /* The messages to a node that leaves are lost at once, and not counted
+     * again if they still arrive.
+     */
+    @Test
+    public void left() {
+        Convergence.sent(B + 1);
+        Convergence.sent(B + 1);
+        Convergence.left(B + 1);
+        assertTrue(Convergence.await(500) < 500);
+        Convergence.arrived(B + 1);
+        Convergence.sent(B + 1); // Not counted either
+        Convergence.add(1);
+        assertEquals(-1, Convergence.await(50));
+        Convergence.done(1);
+        assertTrue(Convergence.await(500) >= 0);
+    }
+
+    /* A message is taken as lost once nothing has happened for a while */
+    @Test
+    public void lateArrival() {
+        Convergence.sent(A);
+        long time = Convergence.await(5000);
+        assertTrue(time >= 1000);
+        Convergence.arrived(A);
+        Convergence.add(1);
+        assertEquals(-1, Convergence.await(50));
+        Convergence.done(1);
+        assertTrue(Convergence.await(500) >= 0);
+    }
+}
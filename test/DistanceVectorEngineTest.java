@@ -0,0 +1,87 @@
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * A single node that runs the distance-vector engine on the virtual clock,
+ * whose neighbors are played by the test.
+ *
+ * @author Burak Gök
+ */
+public class DistanceVectorEngineTest {
+    private static final int A = 1001, B = 1000, D = 1002, E = 1003;
+    private static final double INF = Double.POSITIVE_INFINITY;
+
+    private Simulator simulator;
+    private Node node;
+
+    @Before
+    public void setUp() {
+        Settings.verbose = false;
+        Simulator.enable(1, 0); // Delivered at once, in order
+        simulator = Simulator.get();
+        node = new Node(A, Arrays.asList(new Node.Neighbor(B, 1),
+            new Node.Neighbor(D, 1)), simulator.open(A));
+        node.start();
+    }
+    @After
+    public void tearDown() {
+        node.terminate();
+        Settings.coalescing = false;
+    }
+
+    /* The (address, distance) pairs of the entries */
+    private static Node.DistanceVector vector(int source, double... entries) {
+        int[] addresses = new int[entries.length / 2];
+        double[] distances = new double[addresses.length];
+        for (int i = 0; i < addresses.length; i++) {
+            addresses[i] = (int) entries[2 * i];
+            distances[i] = entries[2 * i + 1];
+        }
+        return new Node.DistanceVector(source, 0, false, addresses,
+            distances, new int[addresses.length]);
+    }
+    private void send(Node.DistanceVector vector) {
+        simulator.open(vector.source).send(vector, A);
+    }
+
+    /* The link to B is cut, and noticed by the next echoes, before a vector
+     * that B has sent arrives.
+     */
+    private void cutLinkToB() {
+        send(vector(B, B, 0, A, 1));
+        send(vector(D, A, 1, D, 0));
+        simulator.advance(10);
+        assertEquals(1, node.getRoutes().distance(B), 0);
+
+        node.setNeighborDistance(B, INF);
+        simulator.advance(Settings.pingPeriod);
+        assertEquals(INF, node.getRoutes().distance(B), 0);
+    }
+
+    @Test
+    public void vectorOverCutLink() {
+        cutLinkToB();
+        send(vector(B, B, 0, A, 1, E, 1));
+        simulator.advance(10);
+        assertEquals(INF, node.getRoutes().distance(B), 0);
+        assertEquals(INF, node.getRoutes().distance(E), 0);
+    }
+
+    /* The vector of B must not keep the one of D in the same batch from
+     * being processed.
+     */
+    @Test
+    public void batchWithVectorOverCutLink() {
+        Settings.coalescing = true;
+        cutLinkToB();
+        send(vector(B, B, 0, A, 1, E, 1));
+        send(vector(D, A, 1, D, 0, E, 2));
+        simulator.advance(10);
+        assertEquals(INF, node.getRoutes().distance(B), 0);
+        assertEquals(3, node.getRoutes().distance(E), 0);
+    }
+}
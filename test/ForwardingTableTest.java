@@ -0,0 +1,98 @@
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * The snapshots compiled from the changes of the transactions, which must be
+ * the same as the ones compiled from the whole table.
+ *
+ * @author Burak Gök
+ */
+public class ForwardingTableTest {
+    private static final int BASE = 1000, SIZE = 300;
+    private static final double INF = Double.POSITIVE_INFINITY;
+
+    @Test
+    public void routes() {
+        RoutingTable table = new RoutingTable();
+        table.put(1005, 2, RoutingTable.DIRECT);
+        table.put(1007, 3, 1005);
+        table.setAlternates(table.find(1007), new int[] {1006, 1008}, 1);
+        ForwardingTable routes = ForwardingTable.compile(table, 1);
+        assertEquals(1005, routes.nextHop(1005));
+        assertEquals(1005, routes.nextHop(1007));
+        assertArrayEquals(new int[] {1005, 1006}, routes.nextHops(1007));
+        assertEquals(3, routes.distance(1007), 0);
+        assertEquals(ForwardingTable.NONE, routes.nextHop(1006));
+        assertEquals(ForwardingTable.NONE, routes.nextHop(999));
+        assertEquals(ForwardingTable.NONE, routes.nextHop(Integer.MIN_VALUE));
+        assertEquals(INF, routes.distance(5000), 0);
+        assertEquals(0, routes.nextHops(1006).length);
+    }
+
+    @Test
+    public void incremental() {
+        Random random = new Random(1);
+        RoutingTable table = new RoutingTable();
+        ForwardingTable routes = ForwardingTable.compile(table, 0);
+        for (int version = 1; version <= 500; version++) {
+            table.begin();
+            // A few routes around a region that moves over the addresses
+            int region = BASE + random.nextInt(SIZE);
+            for (int n = random.nextInt(8); n >= 0; n--) {
+                int address = region + random.nextInt(40) - 20;
+                int slot = table.find(address);
+                switch (random.nextInt(5)) {
+                    case 0:
+                        table.remove(address);
+                        break;
+                    case 1:
+                        if (slot >= 0)
+                            table.setDistance(slot, INF);
+                        break;
+                    case 2:
+                        if (slot >= 0)
+                            table.setAlternates(slot, new int[] {
+                                BASE + random.nextInt(SIZE),
+                                BASE + random.nextInt(SIZE)},
+                                random.nextInt(3));
+                        break;
+                    default:
+                        table.put(address, 1 + random.nextInt(10),
+                            random.nextBoolean() ? RoutingTable.DIRECT
+                                : BASE + random.nextInt(SIZE));
+                }
+            }
+            table.removeUnreachable();
+            routes = ForwardingTable.compile(table, routes, version);
+            ForwardingTable whole = ForwardingTable.compile(table, version);
+            for (int address = BASE - 30; address < BASE + SIZE + 30;
+                    address++) {
+                assertEquals(whole.nextHop(address), routes.nextHop(address));
+                assertEquals(whole.distance(address), routes.distance(address),
+                    0);
+                assertArrayEquals(whole.nextHops(address),
+                    routes.nextHops(address));
+                assertEquals(whole.nextHop(address, version),
+                    routes.nextHop(address, version));
+            }
+            assertEquals(whole.toString(), routes.toString());
+        }
+    }
+
+    /* The next snapshot leaves the one it is compiled from as it is */
+    @Test
+    public void previousUnchanged() {
+        RoutingTable table = new RoutingTable();
+        for (int i = 0; i < SIZE; i++)
+            table.put(BASE + i, i, RoutingTable.DIRECT);
+        ForwardingTable first = ForwardingTable.compile(table, 1);
+        table.begin();
+        table.setDistance(table.find(BASE + 1), 100);
+        ForwardingTable second = ForwardingTable.compile(table, first, 2);
+        assertEquals(100, second.distance(BASE + 1), 0);
+        assertEquals(1, first.distance(BASE + 1), 0);
+        assertEquals(SIZE - 1, second.distance(BASE + SIZE - 1), 0);
+    }
+}
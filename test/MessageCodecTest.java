@@ -0,0 +1,290 @@
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Round trips of every message type through the codec, including the ones
+ * split into fragments, and the rejection of malformed input.
+ *
+ * @author Burak Gök
+ */
+public class MessageCodecTest {
+    private static final double INF = Double.POSITIVE_INFINITY;
+
+    private static Node.DistanceVector vector(int length, boolean incremental) {
+        int[] addresses = new int[length], sequences = new int[length];
+        double[] distances = new double[length];
+        for (int i = 0; i < length; i++) {
+            addresses[i] = 1000 + 2 * i;
+            distances[i] = i % 7 == 3 ? INF : i * 1.5;
+            sequences[i] = i * 31;
+        }
+        return new Node.DistanceVector(1002, 7, incremental, addresses,
+            distances, sequences);
+    }
+    private static List<Node.Message> messages() {
+        List<Node.Message> messages = new ArrayList<>();
+        messages.add(vector(5, false));
+        messages.add(vector(3, true));
+        messages.add(vector(0, false));
+        messages.add(new Node.LinkState(1001, 1003, 42,
+            new int[] {1000, 1004, 1009}, new double[] {1, 2.5, INF}));
+        messages.add(new Node.DataPacket(1001, 1000, 1005, 17));
+        messages.add(new Node.EchoRequest(1001, Long.MAX_VALUE - 1));
+        messages.add(new Node.EchoReply(1002, 123456789L));
+        messages.add(new Node.ResyncRequest(1003));
+        messages.add(new Node.SequenceRequest(1004, 1008, 9, 3));
+        messages.add(new Node.Goodbye(1005));
+        return messages;
+    }
+
+    private static ByteBuffer encode(Object message) {
+        ByteBuffer buffer = ByteBuffer.allocate(MessageCodec.length(message));
+        MessageCodec.encode(message, buffer);
+        assertFalse("Length of " + message, buffer.hasRemaining());
+        buffer.flip();
+        return buffer;
+    }
+
+    @Test
+    public void roundTrip() throws ProtocolException {
+        for (Node.Message message : messages()) {
+            ByteBuffer buffer = encode(message);
+            assertFalse(MessageCodec.isFragment(buffer));
+            assertMessage(message, MessageCodec.decode(buffer));
+            assertFalse(buffer.hasRemaining());
+        }
+    }
+
+    @Test
+    public void truncated() {
+        for (Node.Message message : messages()) {
+            ByteBuffer buffer = encode(message);
+            for (int length = 0; length < buffer.limit(); length++)
+                try {
+                    buffer.position(0).limit(length);
+                    MessageCodec.decode(buffer);
+                    fail(message + " truncated to " + length + " bytes");
+                } catch (ProtocolException expected) {}
+        }
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void unsupportedVersion() throws ProtocolException {
+        ByteBuffer buffer = encode(new Node.Goodbye(1000));
+        buffer.put(0, (byte) (MessageCodec.VERSION + 1));
+        MessageCodec.decode(buffer);
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void unknownType() throws ProtocolException {
+        ByteBuffer buffer = encode(new Node.Goodbye(1000));
+        buffer.put(1, (byte) 99);
+        MessageCodec.decode(buffer);
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void unsortedVector() throws ProtocolException {
+        ByteBuffer buffer = encode(vector(3, false));
+        int entries = buffer.limit() - 3 * (2 * Integer.BYTES + Double.BYTES);
+        buffer.putInt(entries, 2000); // The first address after the others
+        MessageCodec.decode(buffer);
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void negativeLength() throws ProtocolException {
+        ByteBuffer buffer = encode(vector(0, false));
+        buffer.putInt(buffer.limit() - Integer.BYTES, -1);
+        MessageCodec.decode(buffer);
+    }
+
+    @Test
+    public void fragments() throws ProtocolException {
+        Node.DistanceVector vector = vector(100, false);
+        List<ByteBuffer> fragments = fragment(vector, 1, 128);
+        assertTrue(fragments.size() > 1);
+
+        MessageCodec.Reassembler reassembler =
+            new MessageCodec.Reassembler(4, 1 << 20, 60_000);
+        Collections.reverse(fragments);
+        for (int i = 0; i < fragments.size(); i++) {
+            ByteBuffer fragment = fragments.get(i);
+            assertTrue(MessageCodec.isFragment(fragment));
+            ByteBuffer message = reassembler.add(fragment);
+            if (i < fragments.size() - 1)
+                assertNull(message);
+            else assertMessage(vector, MessageCodec.decode(message));
+        }
+    }
+
+    @Test
+    public void interleavedFragments() throws ProtocolException {
+        Node.DistanceVector first = vector(40, false), second = vector(60, true);
+        List<ByteBuffer> firsts = fragment(first, 1, 100),
+                         seconds = fragment(second, 2, 100);
+        MessageCodec.Reassembler reassembler =
+            new MessageCodec.Reassembler(4, 1 << 20, 60_000);
+        Object[] decoded = new Object[2];
+        for (int i = 0; i < Math.max(firsts.size(), seconds.size()); i++) {
+            if (i < firsts.size()) {
+                ByteBuffer message = reassembler.add(firsts.get(i));
+                if (message != null)
+                    decoded[0] = MessageCodec.decode(message);
+            }
+            if (i < seconds.size()) {
+                ByteBuffer message = reassembler.add(seconds.get(i));
+                if (message != null)
+                    decoded[1] = MessageCodec.decode(message);
+            }
+        }
+        assertMessage(first, decoded[0]);
+        assertMessage(second, decoded[1]);
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void truncatedFragment() throws ProtocolException {
+        ByteBuffer fragment = fragment(vector(100, false), 1, 128).get(0);
+        fragment.limit(MessageCodec.FRAGMENT_HEADER_LENGTH - 1);
+        new MessageCodec.Reassembler(4, 1 << 20, 60_000).add(fragment);
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void fragmentBeyondMessage() throws ProtocolException {
+        ByteBuffer fragment = fragment(vector(100, false), 1, 128).get(0);
+        fragment.putInt(MessageCodec.FRAGMENT_HEADER_LENGTH - Integer.BYTES,
+            fragment.getInt(10) - 1); // The offset past the length
+        new MessageCodec.Reassembler(4, 1 << 20, 60_000).add(fragment);
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void fragmentOfAnotherLength() throws ProtocolException {
+        List<ByteBuffer> fragments = fragment(vector(100, false), 1, 128);
+        MessageCodec.Reassembler reassembler =
+            new MessageCodec.Reassembler(4, 1 << 20, 60_000);
+        reassembler.add(fragments.get(0));
+        ByteBuffer fragment = fragments.get(1);
+        fragment.putInt(10, fragment.getInt(10) + 1);
+        reassembler.add(fragment);
+    }
+
+    @Test
+    public void duplicateFragments() throws ProtocolException {
+        Node.DistanceVector vector = vector(100, false);
+        List<ByteBuffer> fragments = fragment(vector, 1, 128);
+        MessageCodec.Reassembler reassembler =
+            new MessageCodec.Reassembler(4, 1 << 20, 60_000);
+        // All but the last fragment, each twice, do not complete the message
+        for (int i = 0; i < fragments.size() - 1; i++) {
+            ByteBuffer fragment = fragments.get(i);
+            assertNull(reassembler.add(fragment.duplicate()));
+            assertNull(reassembler.add(fragment));
+        }
+        ByteBuffer message = reassembler.add(fragments.get(fragments.size() - 1));
+        assertMessage(vector, MessageCodec.decode(message));
+    }
+
+    @Test
+    public void overlappingFragments() throws ProtocolException {
+        Node.DistanceVector vector = vector(100, false);
+        List<ByteBuffer> small = fragment(vector, 1, 100),
+                         large = fragment(vector, 1, 300);
+        MessageCodec.Reassembler reassembler =
+            new MessageCodec.Reassembler(4, 1 << 20, 60_000);
+        // The first large fragment overlaps the first few small ones
+        assertNull(reassembler.add(large.get(0)));
+        ByteBuffer message = null;
+        for (int i = 0; i < small.size(); i++) {
+            ByteBuffer result = reassembler.add(small.get(i));
+            if (i < small.size() - 1)
+                assertNull(result);
+            else message = result;
+        }
+        assertMessage(vector, MessageCodec.decode(message));
+    }
+
+    @Test
+    public void boundedBytes() throws ProtocolException {
+        Node.DistanceVector vector = vector(100, false);
+        int length = MessageCodec.length(vector);
+        List<ByteBuffer> first = fragment(vector, 1, 128),
+                         second = fragment(vector, 2, 128);
+        // Room for one partial message only, so the first one is discarded
+        MessageCodec.Reassembler reassembler =
+            new MessageCodec.Reassembler(4, length + length / 2, 60_000);
+        for (int i = 0; i < first.size() - 1; i++)
+            assertNull(reassembler.add(first.get(i)));
+        for (int i = 0; i < second.size() - 1; i++)
+            assertNull(reassembler.add(second.get(i)));
+        assertNotNull(reassembler.add(second.get(second.size() - 1)));
+        assertNull(reassembler.add(first.get(first.size() - 1)));
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void fragmentedMessageTooLong() throws ProtocolException {
+        Node.DistanceVector vector = vector(100, false);
+        new MessageCodec.Reassembler(4, MessageCodec.length(vector) - 1,
+            60_000).add(fragment(vector, 1, 128).get(0));
+    }
+
+    /**
+     * @return The fragments of the message in order, each in a packet of the
+     *         specified length.
+     */
+    static List<ByteBuffer> fragment(Object message, int id, int packet) {
+        ByteBuffer encoded = encode(message);
+        List<ByteBuffer> fragments = new ArrayList<>();
+        for (int offset = 0; offset < encoded.limit();) {
+            ByteBuffer fragment = ByteBuffer.allocate(packet);
+            offset = MessageCodec.encodeFragment(encoded, id, offset, fragment);
+            fragment.flip();
+            fragments.add(fragment);
+        }
+        return fragments;
+    }
+
+    static void assertMessage(Object expected, Object actual) {
+        assertNotNull(actual);
+        assertEquals(expected.getClass(), actual.getClass());
+        assertEquals(((Node.Message) expected).source,
+            ((Node.Message) actual).source);
+        if (expected instanceof Node.DistanceVector) {
+            Node.DistanceVector e = (Node.DistanceVector) expected,
+                                a = (Node.DistanceVector) actual;
+            assertEquals(e.sequence, a.sequence);
+            assertEquals(e.incremental, a.incremental);
+            assertArrayEquals(e.addresses, a.addresses);
+            assertArrayEquals(e.distances, a.distances, 0);
+            assertArrayEquals(e.sequences, a.sequences);
+        }
+        else if (expected instanceof Node.LinkState) {
+            Node.LinkState e = (Node.LinkState) expected,
+                           a = (Node.LinkState) actual;
+            assertEquals(e.origin, a.origin);
+            assertEquals(e.sequence, a.sequence);
+            assertArrayEquals(e.addresses, a.addresses);
+            assertArrayEquals(e.distances, a.distances, 0);
+        }
+        else if (expected instanceof Node.DataPacket) {
+            Node.DataPacket e = (Node.DataPacket) expected,
+                            a = (Node.DataPacket) actual;
+            assertEquals(e.origin, a.origin);
+            assertEquals(e.destination, a.destination);
+            assertEquals(e.hops, a.hops);
+        }
+        else if (expected instanceof Node.Echo)
+            assertEquals(((Node.Echo) expected).timestamp,
+                ((Node.Echo) actual).timestamp);
+        else if (expected instanceof Node.SequenceRequest) {
+            Node.SequenceRequest e = (Node.SequenceRequest) expected,
+                                 a = (Node.SequenceRequest) actual;
+            assertEquals(e.destination, a.destination);
+            assertEquals(e.sequence, a.sequence);
+            assertEquals(e.hops, a.hops);
+        }
+    }
+}
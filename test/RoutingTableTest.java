@@ -0,0 +1,161 @@
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * The open addressing of the routing table, and the log of its transactions.
+ *
+ * @author Burak Gök
+ */
+public class RoutingTableTest {
+    private static final int DIRECT = RoutingTable.DIRECT;
+    private static final double INF = Double.POSITIVE_INFINITY;
+
+    @Test
+    public void putFindRemove() {
+        RoutingTable table = new RoutingTable(4);
+        // Colliding addresses, which are probed past each other
+        for (int i = 0; i < 100; i++)
+            table.put(1000 + 64 * i, i, DIRECT);
+        assertEquals(100, table.size());
+        for (int i = 0; i < 100; i += 2)
+            table.remove(1000 + 64 * i);
+        assertEquals(50, table.size());
+        for (int i = 0; i < 100; i++) {
+            int slot = table.find(1000 + 64 * i);
+            if (i % 2 == 0)
+                assertEquals(-1, slot);
+            else assertEquals(i, table.distance(slot), 0);
+        }
+        int count = 0;
+        for (int slot = table.next(0); slot >= 0; slot = table.next(slot + 1))
+            count++;
+        assertEquals(50, count);
+    }
+
+    @Test
+    public void unchangedTransaction() {
+        RoutingTable table = table(10);
+        table.begin();
+        assertFalse(table.isChanged());
+        // A route changed and changed back is not changed
+        int slot = table.find(1003);
+        table.setDistance(slot, 9);
+        table.setHop(slot, 1001);
+        assertTrue(table.isChanged());
+        table.setDistance(slot, 3);
+        table.setHop(slot, DIRECT);
+        assertFalse(table.isChanged());
+        assertFalse(table.isChanged(slot));
+    }
+
+    @Test
+    public void changedRoutes() {
+        RoutingTable table = table(10);
+        table.begin();
+        int changed = table.find(1002);
+        table.setSequence(changed, 5);
+        int added = table.put(1020, 4, 1001);
+        assertTrue(table.isChanged());
+        assertTrue(table.isChanged(table.find(1002)));
+        assertTrue(table.isChanged(added));
+        assertTrue(table.isNew(added));
+        assertFalse(table.isNew(table.find(1002)));
+        assertFalse(table.isChanged(table.find(1004)));
+
+        // The next transaction forgets them
+        table.begin();
+        assertFalse(table.isChanged());
+        assertFalse(table.isChanged(table.find(1020)));
+        assertFalse(table.isNew(table.find(1020)));
+    }
+
+    @Test
+    public void removedRoute() {
+        RoutingTable table = table(10);
+        table.begin();
+        table.remove(1005);
+        assertTrue(table.isChanged());
+        table.begin();
+        assertFalse(table.isChanged());
+    }
+
+    @Test
+    public void steps() {
+        RoutingTable table = table(10);
+        table.begin();
+        int slot = table.find(1003);
+        table.setDistance(slot, 7);
+        table.setHop(slot, 1001);
+        assertEquals(3, table.previousDistance(slot), 0);
+        assertEquals(DIRECT, table.previousHop(slot));
+
+        // The previous values are the ones at the checkpoint
+        table.checkpoint();
+        assertEquals(7, table.previousDistance(slot), 0);
+        assertEquals(1001, table.previousHop(slot));
+        table.setDistance(slot, 8);
+        assertEquals(7, table.previousDistance(slot), 0);
+        assertEquals(1001, table.previousHop(slot));
+
+        // Whereas the change is the one since the transaction began
+        table.setDistance(slot, 3);
+        table.setHop(slot, DIRECT);
+        assertFalse(table.isChanged());
+    }
+
+    @Test
+    public void newRouteInLaterStep() {
+        RoutingTable table = table(2);
+        table.begin();
+        table.checkpoint();
+        int slot = table.put(1010, 1, 1001);
+        assertTrue(table.isNew(slot));
+        assertEquals(Integer.MIN_VALUE, table.previousHop(slot));
+        table.checkpoint();
+        assertFalse(table.isNew(slot));
+        assertTrue(table.isChanged(slot));
+    }
+
+    @Test
+    public void resizeDuringTransaction() {
+        RoutingTable table = table(3);
+        table.begin();
+        table.setDistance(table.find(1001), 10);
+        for (int i = 0; i < 100; i++)
+            table.put(2000 + i, i, 1001);
+        int slot = table.find(1001);
+        assertTrue(table.isChanged(slot));
+        assertEquals(1, table.previousDistance(slot), 0);
+        assertFalse(table.isChanged(table.find(1002)));
+        assertTrue(table.isNew(table.find(2050)));
+
+        table.begin();
+        assertFalse(table.isChanged());
+        for (int i = 0; i < 100; i++)
+            assertFalse(table.isChanged(table.find(2000 + i)));
+    }
+
+    @Test
+    public void removeUnreachable() {
+        RoutingTable table = table(10);
+        table.setDistance(table.find(1001), INF); // Outside a transaction
+        table.begin();
+        table.setDistance(table.find(1002), INF);
+        table.setDistance(table.find(1003), INF);
+        table.setDistance(table.find(1003), 3);
+        table.removeUnreachable();
+        // Only the routes that have become unreachable in it are removed
+        assertTrue(table.find(1001) >= 0);
+        assertEquals(-1, table.find(1002));
+        assertTrue(table.find(1003) >= 0);
+        assertEquals(9, table.size());
+    }
+
+    /* Direct routes to the addresses from 1000 on, at their offsets */
+    private static RoutingTable table(int size) {
+        RoutingTable table = new RoutingTable(2 * size);
+        for (int i = 0; i < size; i++)
+            table.put(1000 + i, i, DIRECT);
+        return table;
+    }
+}
@@ -0,0 +1,143 @@
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+import static org.junit.Assert.*;
+
+/**
+ * Scripts of the program that are run on the virtual clock, after each of
+ * which the routes of all nodes must be the shortest paths. The network and
+ * the settings are static, so they are reset between the scripts.
+ *
+ * @author Burak Gök
+ */
+@RunWith(Parameterized.class)
+public class ScenarioTest {
+    // The settings before any script, which its options may have changed
+    private static final Map<Field, Object> defaults = new HashMap<>();
+    static {
+        try {
+            for (Field field : Settings.class.getFields())
+                if (Modifier.isStatic(field.getModifiers()))
+                    defaults.put(field, field.get(null));
+        } catch (IllegalAccessException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    @Parameters(name = "{0}")
+    public static List<Object[]> scenarios() {
+        return Arrays.asList(new Object[][] {
+            /* The costs of links increase, which the unfeasible reports of
+             * the shorter paths are requested for.
+             */
+            {"costIncrease", new String[] {
+                "A B 2", "A C 6", "A D 5", "C E 1", "E F 1", "E G 3", "D F 7",
+                "F G 9", "",
+                "converge",
+                "A B 8", "F G 15", "D F 14",
+                "converge"}, new String[0]},
+            /* After the cost of N2 N3 increases, N2 requests the route of N0
+             * to N3, which still goes through N2, so the request comes back
+             * and is forwarded to N3 by N2.
+             */
+            {"returningRequest", new String[] {
+                "N0 N1 9", "N0 N2 1", "N1 N3 1", "N0 N4 6", "N2 N5 7",
+                "N0 N6 6", "N4 N6 3", "N0 N5 7", "N1 N4 5", "N2 N3 6", "",
+                "converge",
+                "N0 N5 10", "N4 N6 6", "N2 N3 13",
+                "converge"}, new String[0]},
+            // A link set back to a finite cost within its life must not expire
+            {"restoredLink", new String[] {
+                "A B 1", "B C 1", "C D 1", "A D 1", "",
+                "converge",
+                "A D inf",
+                "wait 13",
+                "A D 1",
+                "wait 30"}, new String[0]},
+            {"linkStateJoin", new String[] {
+                "A B 1", "B C 1", "C D 1", "A D 3", "",
+                "converge",
+                "E join C 2 B 9",
+                "converge"}, new String[] {"-Routing:state", "-Simulate:1,0"}},
+            /* A node that joins a quiet network must learn the routes, even
+             * though its own vector changes nothing beyond the routes to it.
+             */
+            {"distanceVectorJoin", new String[] {
+                "A B 1", "B C 1", "",
+                "converge",
+                "D join A 1",
+                "converge"}, new String[0]},
+            /* N4 learns the new numbers for N1 through N0 first, and must wait
+             * for the ones through N5, whose report lags behind, instead of
+             * requesting newer ones forever.
+             */
+            {"laggingReport", new String[] {
+                "N0 N1 6", "N1 N2 8", "N0 N3 7", "N0 N4 8", "N2 N5 7",
+                "N5 N6 4", "N2 N6 3", "N4 N5 5", "N3 N6 5", "N2 N3 2", "",
+                "converge",
+                "N2 N5 10", "N3 N6 10", "N2 N6 4",
+                "converge",
+                "N2 N3 8", "N0 N3 11", "N0 N1 14",
+                "converge"}, new String[] {"-Simulate:3,5", "-Updates:delta",
+                "-Vectors:batch", "-Pacing:200"}},
+            /* A node leaves while the vectors are paced, after which the
+             * routes through the other side of the network must be found.
+             */
+            {"pacedLeave", new String[] {
+                "A B 2", "A C 6", "A D 5", "C E 1", "E F 1", "E G 3", "D F 7",
+                "F G 9", "B H 4", "H G 2", "",
+                "converge",
+                "A B inf",
+                "converge",
+                "E leave",
+                "converge"}, new String[] {"-Simulate:38,3", "-Pacing:200"}},
+        });
+    }
+
+    private final String[] script, options;
+
+    /**
+     * @param options The options of the program, which override the
+     *        simulation with a latency of 1 ms.
+     */
+    public ScenarioTest(String name, String[] script, String[] options) {
+        this.script = script;
+        this.options = options;
+    }
+
+    @Test
+    public void routes() throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        Path path = Files.createTempFile("scenario", ".txt");
+        try {
+            Files.write(path, Arrays.asList(script));
+            List<String> args = new ArrayList<>(Arrays.asList(
+                "-Simulate:1", "-Log:events"));
+            args.addAll(Arrays.asList(options));
+            args.add(path.toString());
+            Program.main(args.toArray(new String[0]));
+        } finally {
+            Files.delete(path);
+        }
+        assertEquals(0, Program.check());
+    }
+
+    @After
+    public void reset() throws IOException, IllegalAccessException {
+        Program.reset();
+        for (Map.Entry<Field, Object> entry : defaults.entrySet())
+            entry.getKey().set(null, entry.getValue());
+    }
+}